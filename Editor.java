@@ -1,38 +1,94 @@
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.scene.Group;
 import javafx.scene.Scene;
-import javafx.scene.text.Text;
+import javafx.event.EventHandler;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 
+import editor.GlyphCache;
 import editor.TextBuffer;
 import editor.Render;
 import editor.KeyEventHandler;
 import editor.MouseEventHandler;
+import editor.ViewManager;
+import editor.FileWatcher;
+import editor.Batch;
+import editor.InputRecorder;
+import editor.InputReplay;
+import editor.LayoutCache;
+import editor.FileFollower;
+import editor.MultiCursor;
+import editor.Documents;
+import editor.Completion;
+import editor.HexView;
 
 public class Editor extends Application {
-    private static String fileName;
+    // The files to open, one tab each; the first is in front.
+    private static String[] fileNames;
+    // Where to record the input to, or which recording to replay instead of waiting for input.
+    private static String recordingName;
+    private static boolean replay;
+    // Follow a growing file read-only, keeping at most maxLines lines if it is above 0.
+    private static boolean follow;
+    private static int maxLines;
+    // Show the file as bytes instead of text.
+    private static boolean hex;
 
     private static int WINDOW_WIDTH = 500;
     private static int WINDOW_HEIGHT = 500;
 
     private TextBuffer text;
     private Render renderLayout;
+    private GlyphCache glyphs;
+    private ViewManager views;
+    private FileWatcher watcher;
+    private LayoutCache layoutCache;
+    private Documents documents;
+    private FileFollower follower;
     private KeyEventHandler keyEventHandler;
     private MouseEventHandler mouseEventHandler;
+    private InputRecorder recorder;
+    private HexView hexView;
 
     private Group root;
     private Group textRoot;
 
     @Override
     public void start(Stage primaryStage) {
+        String fileName = fileNames[0];
+        if (hex) {
+            startHex(primaryStage, fileName);
+            return;
+        }
+        if (replay) {
+            // A replay must not change the file it starts from, it edits a copy.
+            try {
+                Path copy = Files.createTempFile("replay", ".txt");
+                if (new File(fileName).exists()) {
+                    Files.copy(Paths.get(fileName), copy, StandardCopyOption.REPLACE_EXISTING);
+                }
+                fileName = copy.toString();
+                fileNames[0] = fileName;
+            } catch (IOException ioException) {
+                System.out.println("Error when copying " + fileName + "; exception was: " + ioException);
+                Platform.exit();
+                return;
+            }
+        }
         // Create a Node that will be the parent of all things displayed on the screen.
         root = new Group();
         // The Scene represents the window: its height and width will be the height and width of the window displayed.
@@ -41,77 +97,179 @@ public class Editor extends Application {
         textRoot = new Group();
         root.getChildren().add(textRoot);
         text = new TextBuffer();
-        renderLayout = new Render(root, textRoot, text, WINDOW_WIDTH, WINDOW_HEIGHT);
-        openFile(fileName);
+        // Fonts and glyph widths are shared by every view of the buffer and every tab.
+        glyphs = new GlyphCache();
+        renderLayout = new Render(root, textRoot, text, glyphs, WINDOW_WIDTH, WINDOW_HEIGHT);
+        views = new ViewManager(root, text, renderLayout, glyphs, WINDOW_WIDTH, WINDOW_HEIGHT);
+        // Wrap points of an unchanged file are reused from the last time it was opened.
+        layoutCache = new LayoutCache(text, Paths.get(fileName));
+        renderLayout.setLayoutCache(layoutCache);
+        // Notice when another program changes the file and offer to reload the changed part.
+        watcher = new FileWatcher(textRoot, text, renderLayout, fileName);
         // To get information about what keys the user is pressing, create an EventHandler.
-        keyEventHandler = new KeyEventHandler(textRoot, text, renderLayout, fileName);
-        mouseEventHandler = new MouseEventHandler(textRoot, text, renderLayout);
+        // Extra cursors are added with the mouse and edited through the keys.
+        MultiCursor cursors = new MultiCursor(textRoot, text, renderLayout);
+        keyEventHandler = new KeyEventHandler(textRoot, text, renderLayout, views, watcher, cursors, fileName);
+        watcher.setOnReload(() -> {
+            keyEventHandler.clearHistory();
+            layoutCache.synced();
+        });
+        keyEventHandler.setOnSave(layoutCache::synced);
+        // Every file is read in the background; the first is waited for and shown, the others stay behind as text.
+        // Undo history saved with a file is checked against it as it is read and read on the first undo that needs it.
+        documents = new Documents(textRoot, text, renderLayout, views, watcher, layoutCache, cursors, keyEventHandler);
+        documents.setOnTitle(primaryStage::setTitle);
+        documents.setWatching(!follow && !replay);
+        for (String name : fileNames) {
+            documents.open(name);
+        }
+        documents.show(0);
+        if (recordingName == null && !follow) {
+            keyEventHandler.setDocuments(documents);
+        }
+        // Words of the buffer are indexed in the background and offered with Ctrl+Space.
+        if (!follow) {
+            keyEventHandler.setCompletion(new Completion(root, textRoot, text, renderLayout));
+        }
+        if (follow) {
+            keyEventHandler.setReadOnly(true);
+            follower = new FileFollower(textRoot, text, renderLayout, fileName, new File(fileName).length(), maxLines);
+            follower.start();
+        }
+        mouseEventHandler = new MouseEventHandler(textRoot, text, renderLayout, views, cursors);
 
         // Register the event handler to be called for all KEY_PRESSED and KEY_TYPED events.
-        scene.setOnKeyTyped(keyEventHandler);
-        scene.setOnKeyPressed(keyEventHandler);
-        scene.setOnKeyReleased(keyEventHandler);
-        scene.setOnMouseClicked(mouseEventHandler);
+        EventHandler<KeyEvent> keys = keyEventHandler;
+        EventHandler<MouseEvent> mouse = mouseEventHandler;
+        if (recordingName != null && !replay) {
+            try {
+                recorder = new InputRecorder(Paths.get(recordingName));
+                keys = recorder.keys(keys);
+                mouse = recorder.mouse(mouse);
+            } catch (IOException ioException) {
+                System.out.println("Error when recording; exception was: " + ioException);
+            }
+        }
+        scene.setOnKeyTyped(keys);
+        scene.setOnKeyPressed(keys);
+        scene.setOnKeyReleased(keys);
+        scene.setOnMousePressed(mouse);
+        scene.setOnMouseDragged(mouse);
+        scene.setOnMouseReleased(mouse);
 
         // Adjust the window size
         scene.widthProperty().addListener(new ChangeListener<Number>() {
             @Override
             public void changed(ObservableValue<? extends Number> observable, Number oldSceneWidth, Number newSceneWidth) {
-                renderLayout.updateWindowWidth((double) newSceneWidth);
+                views.updateWindowWidth((double) newSceneWidth);
             }
         });
 
         scene.heightProperty().addListener(new ChangeListener<Number>() {
             @Override
             public void changed(ObservableValue<? extends Number> observable, Number oldSceneHeight, Number newSceneHeight) {
-                renderLayout.updateWindowHeight((double) newSceneHeight);
+                views.updateWindowHeight((double) newSceneHeight);
             }
         });
 
 
-        primaryStage.setTitle("Editor");
 
         // This is boilerplate, necessary to setup the window where things are displayed.
         primaryStage.setScene(scene);
         primaryStage.show();
+
+        if (replay) {
+            try {
+                new InputReplay(Paths.get(recordingName)).run(keyEventHandler, mouseEventHandler, text, Platform::exit);
+            } catch (IOException ioException) {
+                System.out.println("Error when replaying; exception was: " + ioException);
+                Platform.exit();
+            }
+        }
     }
 
-    public void openFile(String inputFilename) {
+    // A binary file gets only a hex view of its bytes: no buffer, layout or tabs are made for it.
+    private void startHex(Stage primaryStage, String fileName) {
+        root = new Group();
+        Scene scene = new Scene(root, WINDOW_WIDTH, WINDOW_HEIGHT, Color.WHITE);
+        glyphs = new GlyphCache();
         try {
-            File inputFile = new File(inputFilename);
-            if (!inputFile.exists()) {
-                inputFile.createNewFile();
-            } else {
-                FileReader reader = new FileReader(inputFile);
-                BufferedReader bufferedReader = new BufferedReader(reader);
-
-                int intRead = -1;
-                // Keep reading from the file input read() returns -1.
-                while ((intRead = bufferedReader.read()) != -1) {
-                    char charRead = (char) intRead;
-                    String stringChar = Character.toString(charRead);
-                    Text inputText = new Text(stringChar);
-                    text.add(inputText);
-                    textRoot.getChildren().add(text.getCurrentPos(), inputText);
-                    text.moveRight();
-                }
-                renderLayout.renderAll();
-                System.out.println("Successfully opened file " + inputFilename);
-                // Close the reader.
-                bufferedReader.close();
-                reader.close();
-            }
+            hexView = new HexView(Paths.get(fileName), glyphs, glyphs.font("Monospaced", 12));
         } catch (IOException ioException) {
-            System.out.println("Error when editing; exception was: " + ioException);
+            System.out.println("Error when opening " + fileName + "; exception was: " + ioException);
+            Platform.exit();
+            return;
+        }
+        hexView.setBounds(WINDOW_WIDTH, WINDOW_HEIGHT);
+        root.getChildren().add(hexView.getRoot());
+        scene.setOnKeyTyped(hexView);
+        scene.setOnKeyPressed(hexView);
+        scene.widthProperty().addListener((observable, oldWidth, newWidth) ->
+                hexView.setBounds(newWidth.intValue(), (int) scene.getHeight()));
+        scene.heightProperty().addListener((observable, oldHeight, newHeight) ->
+                hexView.setBounds((int) scene.getWidth(), newHeight.intValue()));
+        primaryStage.setTitle("Editor - " + Paths.get(fileName).getFileName() + " (hex)");
+        primaryStage.setScene(scene);
+        primaryStage.show();
+    }
+
+    @Override
+    public void stop() {
+        if (hexView != null) {
+            hexView.dispose();
+        }
+        if (recorder != null) {
+            recorder.close();
+        }
+        if (follower != null) {
+            follower.stop();
         }
     }
 
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.out.println("Expected usage: Editor <file path>");
+        // Batch mode edits files without ever starting JavaFX.
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(Batch.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        int first = 0;
+        while (first < args.length - 1 && args[first].startsWith("--")) {
+            if (args[first].equals("--record") || args[first].equals("--replay")) {
+                replay = args[first].equals("--replay");
+                recordingName = args[first + 1];
+                first += 2;
+            } else if (args[first].equals("--follow")) {
+                follow = true;
+                first += 1;
+            } else if (args[first].equals("--hex")) {
+                hex = true;
+                first += 1;
+            } else if (args[first].equals("--max-lines")) {
+                maxLines = Integer.parseInt(args[first + 1]);
+                first += 2;
+            } else {
+                break;
+            }
+        }
+        // Recording, replaying, following and the hex view each work on a single file.
+        boolean single = recordingName != null || follow || hex;
+        if (args.length == first || (single && args.length != first + 1)) {
+            System.out.println("Expected usage: Editor [--record|--replay <recording>] [--follow [--max-lines N]] <file path>,"
+                    + " Editor --hex <file path> to show and overwrite its bytes,"
+                    + " Editor <file path>... to open every file in a tab,"
+                    + " or Editor --batch [-j THREADS] <script> <file path>...");
             System.exit(1);
         }
-        fileName = args[0];
+        fileNames = Arrays.copyOfRange(args, first, args.length);
+        // A single file that is not text in the default charset opens in the hex view; reading it
+        // as characters would make a node for every byte and mangle it on save.
+        Path only = Paths.get(fileNames[0]);
+        if (fileNames.length == 1 && first == 0 && Files.isRegularFile(only)) {
+            try {
+                hex = HexView.isBinary(only, Charset.defaultCharset());
+            } catch (IOException ioException) {
+                System.out.println("Error when reading " + only + "; exception was: " + ioException);
+            }
+        }
         launch(args);
     }
 }
@@ -4,20 +4,31 @@ import javafx.scene.text.Text;
 
 /**
  * Record the current action state, such as add/delete character in certain position.
+ * A batch action holds the edits several cursors made with one key instead, undone all at once.
  */
 public class Action {
     private boolean add;
+    // Only the position: a batch replaces the nodes it touches, so a node kept here could be gone.
     private int position;
-    private TextBuffer.Node node;
     private Text text;
 
-    public Action(boolean add, int curPos, TextBuffer.Node curNode, Text curText) {
+    // For a batch: where each edit happened, the text it removed and the text it inserted, in order.
+    private int[] offsets;
+    private String[] removed;
+    private String[] inserted;
+
+    public Action(boolean add, int curPos, Text curText) {
         this.add = add;
         position = curPos;
-        node = curNode;
         text = curText;
     }
 
+    public Action(int[] offsets, String[] removed, String[] inserted) {
+        this.offsets = offsets;
+        this.removed = removed;
+        this.inserted = inserted;
+    }
+
     public boolean getAction() {
         return add;
     }
@@ -26,11 +37,37 @@ public class Action {
         return position;
     }
 
-    public TextBuffer.Node getNode() {
-        return node;
-    }
-
     public Text getText() {
         return text;
     }
+
+    public boolean isBatch() {
+        return offsets != null;
+    }
+
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public String[] getRemoved() {
+        return removed;
+    }
+
+    public String[] getInserted() {
+        return inserted;
+    }
+
+    /** Return the batch that undoes this one: the same edits the other way around, last one first. */
+    public Action inverse() {
+        int n = offsets.length;
+        int[] o = new int[n];
+        String[] r = new String[n];
+        String[] i = new String[n];
+        for (int k = 0; k < n; k += 1) {
+            o[k] = offsets[n - 1 - k];
+            r[k] = inserted[n - 1 - k];
+            i[k] = removed[n - 1 - k];
+        }
+        return new Action(o, r, i);
+    }
 }
@@ -0,0 +1,120 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless mode: apply one EditScript to many files without starting JavaFX.
+ * Every file is read into its own TextStore and LineIndex, edited and written back,
+ * with a fixed number of files in flight at once.
+ *
+ *   java editor.Batch [-j THREADS] SCRIPT FILE...
+ */
+public class Batch {
+    private static class Result {
+        Path path;
+        int edits;
+        long bytes;
+        long nanos;
+        Exception error;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /** Run the batch mode with the given arguments and return the exit status. */
+    public static int run(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int first = 0;
+        if (args.length > 1 && args[0].equals("-j")) {
+            threads = Math.max(1, Integer.parseInt(args[1]));
+            first = 2;
+        }
+        if (args.length - first < 2) {
+            System.out.println("Expected usage: Editor --batch [-j THREADS] <script> <file path>...");
+            return 1;
+        }
+
+        EditScript script;
+        try {
+            script = EditScript.read(Paths.get(args[first]));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Can't read the script; exception was: " + e.getMessage());
+            return 1;
+        }
+        ArrayList<String> files = new ArrayList<>(Arrays.asList(args).subList(first + 1, args.length));
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        CompletionService<Result> done = new ExecutorCompletionService<>(pool);
+        for (String file : files) {
+            done.submit(() -> edit(script, Paths.get(file)));
+        }
+
+        // Report files as they finish, not in the order they were given.
+        long totalBytes = 0;
+        int failed = 0;
+        try {
+            for (int i = 0; i < files.size(); i += 1) {
+                Result result = done.take().get();
+                if (result.error != null) {
+                    failed += 1;
+                    System.out.println("Error when editing " + result.path + "; exception was: " + result.error);
+                    continue;
+                }
+                totalBytes += result.bytes;
+                System.out.println(result.path + ": " + result.edits + " edits, "
+                        + throughput(result.bytes, result.nanos));
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            System.out.println("Batch was interrupted; exception was: " + e);
+            failed = files.size();
+        } finally {
+            pool.shutdownNow();
+        }
+        System.out.println((files.size() - failed) + " files edited, " + failed + " failed, "
+                + throughput(totalBytes, System.nanoTime() - start));
+        return failed == 0 ? 0 : 1;
+    }
+
+    // Runs on a worker thread.
+    private static Result edit(EditScript script, Path path) {
+        Result result = new Result();
+        result.path = path;
+        long start = System.nanoTime();
+        try {
+            result.bytes = Files.size(path);
+            TextStore store = new TextStore((int) Math.min(Integer.MAX_VALUE - 16, result.bytes));
+            // The same charset as the window uses to open and save.
+            Charset charset = Charset.defaultCharset();
+            FileIO.read(path, charset, store);
+            LineIndex lines = new LineIndex();
+            lines.reset(store);
+            result.edits = script.apply(store, lines);
+            if (result.edits > 0) {
+                FileIO.write(path, charset, store);
+            }
+        } catch (IOException | RuntimeException e) {
+            result.error = e;
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static String throughput(long bytes, long nanos) {
+        double millis = nanos / 1e6;
+        double megabytesPerSecond = bytes / 1e6 / Math.max(nanos / 1e9, 1e-9);
+        return String.format("%.1f KB in %.1f ms (%.1f MB/s)", bytes / 1e3, millis, megabytesPerSecond);
+    }
+}
@@ -0,0 +1,13 @@
+package editor;
+
+/**
+ * Receives a notification every time the shared text buffer changes, so views can relayout
+ * only the lines that were touched.
+ */
+public interface BufferListener {
+    /** Called after s was inserted at offset; line is the logical line that holds offset. */
+    void inserted(int offset, String s, int line);
+
+    /** Called after s was removed from offset; line is the logical line that held offset. */
+    void removed(int offset, String s, int line);
+}
@@ -0,0 +1,138 @@
+package editor;
+
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+
+/**
+ * A list of words from the buffer that complete the word in front of the cursor, shown under it
+ * with Ctrl+Space. The list follows the cursor as more is typed or deleted and closes when no word
+ * fits any more; the words come from a WordIndex of the whole buffer.
+ */
+public class Completion {
+    private static final int ROWS = 8;
+    private static final int PADDING = 4;
+
+    private Group root;
+    private Group textRoot;
+    private TextBuffer text;
+    private Render render;
+    private WordIndex index;
+
+    private Group popup;
+    private Rectangle background;
+    private Rectangle highlight;
+    private Text[] rows;
+
+    private boolean showing;
+    private String prefix;
+    private ArrayList<String> words;
+    private int selected;
+
+    public Completion(Group root, Group textRoot, TextBuffer text, Render render) {
+        this.root = root;
+        this.textRoot = textRoot;
+        this.text = text;
+        this.render = render;
+        index = new WordIndex(text);
+        background = new Rectangle(0, 0, 0, 0);
+        background.setFill(Color.WHITESMOKE);
+        background.setStroke(Color.GRAY);
+        highlight = new Rectangle(0, 0, 0, 0);
+        highlight.setFill(Color.LIGHTBLUE);
+        popup = new Group(background, highlight);
+        rows = new Text[ROWS];
+        for (int i = 0; i < ROWS; i += 1) {
+            rows[i] = new Text();
+            rows[i].setTextOrigin(VPos.TOP);
+            popup.getChildren().add(rows[i]);
+        }
+        words = new ArrayList<>();
+    }
+
+    public boolean isShowing() {
+        return showing;
+    }
+
+    /** Show the words that complete the word in front of the cursor, if there are any. */
+    public void show() {
+        showing = true;
+        prefix = null;
+        update();
+    }
+
+    /**
+     * Look the words up again for the text in front of the cursor, closing the list if none fit.
+     * The selected row stays while the prefix is the same, as it is after Up and Down.
+     */
+    public void update() {
+        if (!showing) {
+            return;
+        }
+        int caret = text.getCurrentPos();
+        String previous = prefix;
+        prefix = index.prefixAt(caret);
+        words = index.complete(prefix, caret, ROWS);
+        if (words.isEmpty()) {
+            hide();
+            return;
+        }
+        selected = prefix.equals(previous) ? Math.min(selected, words.size() - 1) : 0;
+        place();
+    }
+
+    /** Select the word delta rows further down, wrapping around. */
+    public void move(int delta) {
+        selected = ((selected + delta) % words.size() + words.size()) % words.size();
+        place();
+    }
+
+    /** Close the list and return what the selected word adds to the text in front of the cursor. */
+    public String accept() {
+        String rest = words.get(selected).substring(prefix.length());
+        hide();
+        return rest;
+    }
+
+    public void hide() {
+        showing = false;
+        root.getChildren().remove(popup);
+    }
+
+    // Lay the rows out under the cursor, in front of everything else in the window.
+    private void place() {
+        int lineHeight = (int) Math.round(render.getAutoHeight().getLayoutBounds().getHeight());
+        int width = 0;
+        for (int i = 0; i < ROWS; i += 1) {
+            rows[i].setVisible(i < words.size());
+            if (i < words.size()) {
+                rows[i].setText(words.get(i));
+                rows[i].setFont(render.getFont());
+                rows[i].setX(PADDING);
+                rows[i].setY(i * lineHeight);
+                width = Math.max(width, (int) Math.round(rows[i].getLayoutBounds().getWidth()));
+            }
+        }
+        background.setWidth(width + 2 * PADDING);
+        background.setHeight(words.size() * lineHeight);
+        highlight.setY(selected * lineHeight);
+        highlight.setWidth(width + 2 * PADDING);
+        highlight.setHeight(lineHeight);
+
+        Cursor cursor = render.getCursor();
+        double x = textRoot.getLayoutX() + cursor.getX();
+        double y = textRoot.getLayoutY() + cursor.getY() + lineHeight;
+        // Above the cursor when there is no room under it.
+        if (y + words.size() * lineHeight > render.getWindowHeight()) {
+            y -= (words.size() + 1) * lineHeight;
+        }
+        popup.setLayoutX(Math.max(0, Math.min(x, render.getContentWidth() - width - 2 * PADDING)));
+        popup.setLayoutY(y);
+        root.getChildren().remove(popup);
+        root.getChildren().add(popup);
+    }
+}
@@ -0,0 +1,635 @@
+package editor;
+
+import javafx.application.Platform;
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The buffer and another file side by side, with deleted, inserted and changed lines marked
+ * and the changed characters inside a changed line highlighted.
+ *
+ * Lines are compared by hash with LineDiff on a background thread. The hashes of the buffer's
+ * lines are kept up to date as it is edited, and an edit only forgets the matches of the lines
+ * it touched; the next diff covers just the stretch between the nearest still matched lines
+ * around them. Only the visible rows of either column get Text nodes.
+ * The changed characters of a pair of lines are found on the same thread the first time the pair
+ * is shown and kept by the hashes of the two lines, so drawing a row only looks them up.
+ */
+public class DiffView implements BufferListener {
+    // Characters drawn per row, and the longest pair of lines whose characters are compared.
+    private static final int MAX_ROW_CHARS = 400;
+    private static final int MAX_REFINE_CHARS = 2000;
+    // Pairs of changed lines whose changed characters are kept.
+    private static final int MAX_REFINED = 4096;
+
+    private static final Color DELETED = Color.rgb(255, 224, 224);
+    private static final Color INSERTED = Color.rgb(220, 255, 220);
+    private static final Color CHANGED = Color.rgb(255, 248, 208);
+    private static final Color MISSING = Color.rgb(236, 236, 236);
+    private static final Color CHANGED_CHARS = Color.rgb(255, 200, 120, 0.6);
+
+    /** One side of the view: a clipped pane with a pool of row backgrounds, Text nodes and marks. */
+    private class Column {
+        Group root = new Group();
+        Rectangle clip = new Rectangle(0, 0);
+        Rectangle background = new Rectangle(0, 0, Color.WHITE);
+        Group rowBackgrounds = new Group();
+        Group marks = new Group();
+        Group texts = new Group();
+        int usedRows;
+        int usedMarks;
+
+        Column() {
+            root.setClip(clip);
+            root.getChildren().addAll(background, rowBackgrounds, marks, texts);
+        }
+
+        void setBounds(int x, int width, int height) {
+            root.setLayoutX(x);
+            clip.setWidth(width);
+            clip.setHeight(height);
+            background.setWidth(width);
+            background.setHeight(height);
+        }
+
+        void row(int y, String s, Color color) {
+            if (usedRows == texts.getChildren().size()) {
+                Text t = new Text();
+                t.setTextOrigin(VPos.TOP);
+                texts.getChildren().add(t);
+                rowBackgrounds.getChildren().add(new Rectangle(0, 0, 0, 0));
+            }
+            Text t = (Text) texts.getChildren().get(usedRows);
+            Rectangle box = (Rectangle) rowBackgrounds.getChildren().get(usedRows);
+            usedRows += 1;
+            if (t.getFont() != font) {
+                t.setFont(font);
+            }
+            t.setText(s == null ? "" : s);
+            t.setX(WrapLayout.LEFT_MARGIN);
+            t.setY(y);
+            t.setVisible(s != null);
+            box.setY(y);
+            box.setWidth(clip.getWidth());
+            box.setHeight(lineHeight);
+            box.setFill(color);
+            box.setVisible(color != null);
+        }
+
+        void mark(double x, int y, double width) {
+            if (usedMarks == marks.getChildren().size()) {
+                Rectangle box = new Rectangle(0, 0, 0, 0);
+                box.setFill(CHANGED_CHARS);
+                marks.getChildren().add(box);
+            }
+            Rectangle box = (Rectangle) marks.getChildren().get(usedMarks);
+            usedMarks += 1;
+            box.setX(x);
+            box.setY(y);
+            box.setWidth(width);
+            box.setHeight(lineHeight);
+            box.setVisible(true);
+        }
+
+        void begin() {
+            usedRows = 0;
+            usedMarks = 0;
+        }
+
+        void end() {
+            for (int i = usedRows; i < texts.getChildren().size(); i += 1) {
+                texts.getChildren().get(i).setVisible(false);
+                rowBackgrounds.getChildren().get(i).setVisible(false);
+            }
+            for (int i = usedMarks; i < marks.getChildren().size(); i += 1) {
+                marks.getChildren().get(i).setVisible(false);
+            }
+        }
+    }
+
+    private TextBuffer text;
+    private TextStore store;
+    private LineIndex lines;
+    private Render render;
+    private GlyphCache glyphs;
+    private ViewManager views;
+
+    private TextStore other;
+    private LineIndex otherLines;
+    private long[] otherHashes;
+
+    // Hash of every line of the buffer, and the line of the other file it is matched with or -1.
+    private long[] leftHashes;
+    private int[] match;
+    private int leftCount;
+    // Lines whose matches are unknown; the range is empty when dirtyFrom > dirtyTo.
+    private int dirtyFrom;
+    private int dirtyTo;
+    private int version;
+    private boolean running;
+    private boolean disposed;
+    private ExecutorService worker;
+    // The changed columns of both lines of a pair, as start and end pairs, by the key of the pair;
+    // and the pairs sent to the worker that are not back yet.
+    private LinkedHashMap<Long, int[][]> refined;
+    private HashSet<Long> refining;
+
+    // The aligned rows: the line shown on either side, or -1 for a gap.
+    private int[] rowLeft;
+    private int[] rowRight;
+    private int rowCount;
+    private int[] rowOfLeft;
+
+    private Group viewRoot;
+    private Rectangle divider;
+    private Column left;
+    private Column right;
+    private Cursor c;
+    private Font font;
+    private int lineHeight;
+    private int width;
+    private int height;
+    private int top;
+
+    public DiffView(TextBuffer text, Render render, GlyphCache glyphs, Path otherPath, ViewManager views) throws IOException {
+        this.text = text;
+        this.store = text.getTextStore();
+        this.lines = text.getLineIndex();
+        this.render = render;
+        this.glyphs = glyphs;
+        this.views = views;
+
+        other = new TextStore();
+        FileIO.read(otherPath, Charset.defaultCharset(), other);
+        otherLines = new LineIndex();
+        otherLines.reset(other);
+        otherHashes = new long[otherLines.lineCount()];
+        for (int line = 0; line < otherHashes.length; line += 1) {
+            otherHashes[line] = hashLine(other, otherLines, line);
+        }
+        leftCount = lines.lineCount();
+        leftHashes = new long[leftCount + 16];
+        match = new int[leftCount + 16];
+        for (int line = 0; line < leftCount; line += 1) {
+            leftHashes[line] = hashLine(store, lines, line);
+        }
+        Arrays.fill(match, -1);
+        dirtyFrom = 0;
+        dirtyTo = leftCount - 1;
+
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "diff");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refined = new LinkedHashMap<Long, int[][]>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[][]> eldest) {
+                return size() > MAX_REFINED;
+            }
+        };
+        refining = new HashSet<>();
+
+        left = new Column();
+        right = new Column();
+        divider = new Rectangle(0, 0, 1, 0);
+        divider.setFill(Color.GRAY);
+        c = new Cursor();
+        left.root.getChildren().add(c);
+        viewRoot = new Group(left.root, right.root, divider);
+        setFont(render.getFont());
+
+        viewRoot.setOnMousePressed(mouseEvent -> {
+            if (mouseEvent.getX() < width / 2) {
+                moveCaret(mouseEvent.getX(), mouseEvent.getY());
+            }
+            mouseEvent.consume();
+        });
+        viewRoot.setOnMouseDragged(mouseEvent -> mouseEvent.consume());
+        viewRoot.setOnMouseReleased(mouseEvent -> mouseEvent.consume());
+        viewRoot.setOnScroll(scrollEvent -> {
+            scrollBy(scrollEvent.getDeltaY() > 0 ? -3 : 3);
+            scrollEvent.consume();
+        });
+
+        buildRows();
+        text.addListener(this);
+        update();
+    }
+
+    public Group getRoot() {
+        return viewRoot;
+    }
+
+    public void dispose() {
+        disposed = true;
+        text.removeListener(this);
+        worker.shutdownNow();
+    }
+
+    public void setBounds(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int columnWidth = width / 2;
+        left.setBounds(0, columnWidth, height);
+        right.setBounds(columnWidth + 1, width - columnWidth - 1, height);
+        divider.setX(columnWidth);
+        divider.setHeight(height);
+        render();
+    }
+
+    public void setFont(Font font) {
+        this.font = font;
+        lineHeight = glyphs.lineHeight(font);
+        c.setHeight(lineHeight);
+        render();
+    }
+
+    /** Handle the keys that belong to the diff view and return true if keyEvent was one of them. */
+    public boolean handle(KeyEvent keyEvent) {
+        if (keyEvent.getEventType() != KeyEvent.KEY_PRESSED) {
+            return false;
+        }
+        int page = Math.max(1, height / lineHeight - 1);
+        KeyCode code = keyEvent.getCode();
+        if (code == KeyCode.ESCAPE) {
+            views.closeDiff();
+        } else if (code == KeyCode.PAGE_UP) {
+            scrollBy(-page);
+        } else if (code == KeyCode.PAGE_DOWN) {
+            scrollBy(page);
+        } else if (code == KeyCode.F7) {
+            // F7 jumps to the next change, shift+F7 to the previous one.
+            jumpToChange(keyEvent.isShiftDown() ? -1 : 1);
+        } else {
+            return false;
+        }
+        keyEvent.consume();
+        return true;
+    }
+
+    /** Scroll so that the row of the cursor's line is visible. */
+    public void revealCaret() {
+        int line = lines.lineOfOffset(text.getCurrentPos());
+        int row = rowOfLeft[Math.min(line, rowOfLeft.length - 1)];
+        int visible = Math.max(1, height / lineHeight);
+        if (row < top) {
+            top = row;
+        } else if (row >= top + visible) {
+            top = row - visible + 1;
+        }
+        render();
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        int added = countLineBreaks(s);
+        if (added > 0) {
+            makeRoom(leftCount + added);
+            System.arraycopy(leftHashes, line + 1, leftHashes, line + 1 + added, leftCount - line - 1);
+            System.arraycopy(match, line + 1, match, line + 1 + added, leftCount - line - 1);
+            leftCount += added;
+        }
+        for (int l = line; l <= line + added; l += 1) {
+            leftHashes[l] = hashLine(store, lines, l);
+            match[l] = -1;
+        }
+        if (dirtyFrom <= dirtyTo) {
+            dirtyFrom = dirtyFrom > line ? dirtyFrom + added : dirtyFrom;
+            dirtyTo = dirtyTo > line ? dirtyTo + added : dirtyTo;
+        }
+        markDirty(line, line + added);
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        int removed = countLineBreaks(s);
+        if (removed > 0) {
+            System.arraycopy(leftHashes, line + 1 + removed, leftHashes, line + 1, leftCount - line - 1 - removed);
+            System.arraycopy(match, line + 1 + removed, match, line + 1, leftCount - line - 1 - removed);
+            leftCount -= removed;
+        }
+        leftHashes[line] = hashLine(store, lines, line);
+        match[line] = -1;
+        if (dirtyFrom <= dirtyTo) {
+            dirtyFrom = dirtyFrom > line ? Math.max(line, dirtyFrom - removed) : dirtyFrom;
+            dirtyTo = dirtyTo > line ? Math.max(line, dirtyTo - removed) : dirtyTo;
+        }
+        markDirty(line, line);
+    }
+
+    private void markDirty(int from, int to) {
+        dirtyFrom = dirtyFrom <= dirtyTo ? Math.min(dirtyFrom, from) : from;
+        dirtyTo = Math.max(dirtyTo, to);
+        version += 1;
+        // Show the shifted lines at once, the new matches follow when the diff is done.
+        buildRows();
+        render();
+        update();
+    }
+
+    // Diff the stretch around the dirty lines in the background, unless a diff is running already.
+    private void update() {
+        if (running || disposed || dirtyFrom > dirtyTo) {
+            return;
+        }
+        int from = dirtyFrom;
+        while (from > 0 && match[from - 1] < 0) {
+            from -= 1;
+        }
+        int leftFrom = from;
+        int leftTo = dirtyTo + 1;
+        while (leftTo < leftCount && match[leftTo] < 0) {
+            leftTo += 1;
+        }
+        int rightFrom = leftFrom > 0 ? match[leftFrom - 1] + 1 : 0;
+        int rightTo = leftTo < leftCount ? match[leftTo] : otherHashes.length;
+        long[] a = Arrays.copyOfRange(leftHashes, leftFrom, leftTo);
+        long[] b = Arrays.copyOfRange(otherHashes, rightFrom, rightTo);
+        int startVersion = version;
+        running = true;
+        worker.execute(() -> {
+            int[] result = LineDiff.match(a, b);
+            Platform.runLater(() -> finished(startVersion, leftFrom, rightFrom, result));
+        });
+    }
+
+    // Runs on the application thread.
+    private void finished(int startVersion, int leftFrom, int rightFrom, int[] result) {
+        running = false;
+        if (disposed) {
+            return;
+        }
+        if (startVersion == version) {
+            for (int i = 0; i < result.length; i += 1) {
+                match[leftFrom + i] = result[i] >= 0 ? rightFrom + result[i] : -1;
+            }
+            dirtyFrom = 0;
+            dirtyTo = -1;
+            buildRows();
+            render();
+        } else {
+            // The buffer changed meanwhile, diff again with the new edits included.
+            update();
+        }
+    }
+
+    // Align the two files: matched lines share a row, the lines between two matches are paired up.
+    private void buildRows() {
+        int rightCount = otherHashes.length;
+        if (rowLeft == null || rowLeft.length < leftCount + rightCount) {
+            rowLeft = new int[leftCount + rightCount + 16];
+            rowRight = new int[rowLeft.length];
+        }
+        if (rowOfLeft == null || rowOfLeft.length < leftCount) {
+            rowOfLeft = new int[leftCount + 16];
+        }
+        rowCount = 0;
+        int i = 0;
+        int j = 0;
+        while (i < leftCount || j < rightCount) {
+            if (i < leftCount && match[i] >= 0 && match[i] == j) {
+                addRow(i, j);
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int nextLeft = i;
+            while (nextLeft < leftCount && match[nextLeft] < 0) {
+                nextLeft += 1;
+            }
+            int nextRight = Math.max(j, nextLeft < leftCount ? match[nextLeft] : rightCount);
+            int pairs = Math.max(nextLeft - i, nextRight - j);
+            for (int k = 0; k < pairs; k += 1) {
+                addRow(i + k < nextLeft ? i + k : -1, j + k < nextRight ? j + k : -1);
+            }
+            i = nextLeft;
+            j = nextRight;
+        }
+    }
+
+    private void addRow(int leftLine, int rightLine) {
+        rowLeft[rowCount] = leftLine;
+        rowRight[rowCount] = rightLine;
+        if (leftLine >= 0) {
+            rowOfLeft[leftLine] = rowCount;
+        }
+        rowCount += 1;
+    }
+
+    private void render() {
+        if (lineHeight == 0 || height == 0) {
+            return;
+        }
+        int visible = height / lineHeight + 1;
+        top = Math.max(0, Math.min(top, rowCount - visible + 1));
+        left.begin();
+        right.begin();
+        c.setVisible(false);
+        int caretLine = lines.lineOfOffset(text.getCurrentPos());
+        for (int r = top; r < Math.min(rowCount, top + visible); r += 1) {
+            int y = (r - top) * lineHeight;
+            int l = rowLeft[r];
+            int o = rowRight[r];
+            String leftText = l >= 0 ? lineText(store, lines, l) : null;
+            String rightText = o >= 0 ? lineText(other, otherLines, o) : null;
+            if (l >= 0 && o >= 0 && match[l] == o) {
+                left.row(y, leftText, null);
+                right.row(y, rightText, null);
+            } else if (l >= 0 && o >= 0) {
+                left.row(y, leftText, CHANGED);
+                right.row(y, rightText, CHANGED);
+                refine(leftHashes[l], otherHashes[o], leftText, rightText, y);
+            } else if (l >= 0) {
+                left.row(y, leftText, DELETED);
+                right.row(y, null, MISSING);
+            } else {
+                left.row(y, null, MISSING);
+                right.row(y, rightText, INSERTED);
+            }
+            if (l == caretLine) {
+                int column = text.getCurrentPos() - lines.lineStart(l);
+                c.setX(xOf(leftText, Math.min(column, leftText.length())));
+                c.setY(y);
+                c.setVisible(true);
+            }
+        }
+        left.end();
+        right.end();
+    }
+
+    // Mark the characters that differ between two paired lines, once the worker found them.
+    private void refine(long hashA, long hashB, String a, String b, int y) {
+        if (a.length() > MAX_REFINE_CHARS || b.length() > MAX_REFINE_CHARS) {
+            return;
+        }
+        long key = hashA * 0x9e3779b97f4a7c15L + hashB;
+        int[][] changed = refined.get(key);
+        if (changed == null) {
+            if (!disposed && refining.add(key)) {
+                worker.execute(() -> {
+                    int[][] found = changedColumns(a, b);
+                    Platform.runLater(() -> {
+                        refining.remove(key);
+                        if (!disposed) {
+                            refined.put(key, found);
+                            render();
+                        }
+                    });
+                });
+            }
+            return;
+        }
+        for (int i = 0; i < changed[0].length; i += 2) {
+            left.mark(xOf(a, changed[0][i]), y, xOf(a, changed[0][i + 1]) - xOf(a, changed[0][i]));
+        }
+        for (int i = 0; i < changed[1].length; i += 2) {
+            right.mark(xOf(b, changed[1][i]), y, xOf(b, changed[1][i + 1]) - xOf(b, changed[1][i]));
+        }
+    }
+
+    // Runs on the worker: the runs of characters of a and of b that the other line does not have.
+    private static int[][] changedColumns(String a, String b) {
+        int[] charMatch = LineDiff.match(LineDiff.chars(a), LineDiff.chars(b));
+        boolean[] matchedA = new boolean[a.length()];
+        boolean[] matchedB = new boolean[b.length()];
+        for (int i = 0; i < charMatch.length; i += 1) {
+            if (charMatch[i] >= 0) {
+                matchedA[i] = true;
+                matchedB[charMatch[i]] = true;
+            }
+        }
+        return new int[][] {runs(matchedA), runs(matchedB)};
+    }
+
+    // The start and end of every run of false in matched.
+    private static int[] runs(boolean[] matched) {
+        int[] result = new int[matched.length + 1];
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i <= matched.length; i += 1) {
+            boolean changed = i < matched.length && !matched[i];
+            if (changed && start < 0) {
+                start = i;
+            } else if (!changed && start >= 0) {
+                result[count] = start;
+                result[count + 1] = i;
+                count += 2;
+                start = -1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    // The x of the character at column in s.
+    private int xOf(String s, int column) {
+        int x = WrapLayout.LEFT_MARGIN;
+        for (int i = 0; i < column; i += 1) {
+            x += glyphs.width(s.charAt(i), font);
+        }
+        return x;
+    }
+
+    private void moveCaret(double x, double y) {
+        int r = top + (int) (y / lineHeight);
+        if (r >= rowCount || rowLeft[r] < 0) {
+            return;
+        }
+        int line = rowLeft[r];
+        String s = lineText(store, lines, line);
+        int column = 0;
+        int cx = WrapLayout.LEFT_MARGIN;
+        while (column < s.length() && cx + glyphs.width(s.charAt(column), font) / 2 < x) {
+            cx += glyphs.width(s.charAt(column), font);
+            column += 1;
+        }
+        render.goTo(lines.lineStart(line) + column);
+        render();
+    }
+
+    private void scrollBy(int rows) {
+        top += rows;
+        render();
+    }
+
+    private void jumpToChange(int direction) {
+        int r = top + direction;
+        // Skip the rest of the change at the top, then find the start of the next one.
+        while (r >= 0 && r < rowCount && isChanged(r) && isChanged(r - direction)) {
+            r += direction;
+        }
+        while (r >= 0 && r < rowCount && !isChanged(r)) {
+            r += direction;
+        }
+        if (r >= 0 && r < rowCount) {
+            while (direction < 0 && r > 0 && isChanged(r - 1)) {
+                r -= 1;
+            }
+            top = r;
+            render();
+        }
+    }
+
+    private boolean isChanged(int row) {
+        return row >= 0 && row < rowCount && (rowLeft[row] < 0 || rowRight[row] < 0 || match[rowLeft[row]] != rowRight[row]);
+    }
+
+    private void makeRoom(int count) {
+        if (count > leftHashes.length) {
+            int capacity = Math.max(count, leftHashes.length * 2);
+            leftHashes = Arrays.copyOf(leftHashes, capacity);
+            match = Arrays.copyOf(match, capacity);
+        }
+    }
+
+    // The line without its line break, cut off after MAX_ROW_CHARS characters.
+    private static String lineText(TextStore s, LineIndex index, int line) {
+        int start = index.lineStart(line);
+        int length = index.lineLength(line);
+        if (length > 0 && s.charAt(start + length - 1) == '\n') {
+            length -= 1;
+        }
+        return s.substring(start, start + Math.min(length, MAX_ROW_CHARS));
+    }
+
+    // 64-bit FNV-1a over the line without its line break.
+    private static long hashLine(TextStore s, LineIndex index, int line) {
+        int start = index.lineStart(line);
+        int end = start + index.lineLength(line);
+        long h = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i += 1) {
+            char ch = s.charAt(i);
+            if (ch != '\n') {
+                h ^= ch;
+                h *= 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    private static int countLineBreaks(String s) {
+        int count = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\n') {
+                count += 1;
+            }
+        }
+        return count;
+    }
+}
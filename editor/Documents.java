@@ -0,0 +1,240 @@
+package editor;
+
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.text.Text;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Optional;
+import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * The files open in the window, one tab each.
+ * Every tab shares the one buffer, render, glyph cache and fonts of the window: only the tab in
+ * front has Text nodes in the scene. The others keep just their characters in a TextStore, with
+ * their cursor, scroll position and undo stacks, and switching puts the next tab's characters into
+ * the buffer. Files are read on a background thread as soon as they are opened, so a tab is
+ * usually ready before it is first shown.
+ */
+public class Documents {
+    // Files are read in the background, one at a time.
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "document-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Document {
+        String fileName;
+        // The file being read, until it is shown the first time.
+        Future<TextStore> loading;
+        // The characters while the tab is not in front; null while it is.
+        TextStore content;
+        UndoHistory history;
+        Stack<Action> undo;
+        Stack<Action> redo;
+        int caret;
+        int topLine;
+        boolean dirty;
+        // The version of the file the characters were read from or last compared with.
+        FileSnapshot snapshot;
+
+        Document(String fileName) {
+            this.fileName = fileName;
+            history = new UndoHistory(Paths.get(fileName));
+            undo = new Stack<>();
+            redo = new Stack<>();
+            // A file opens with the cursor at its end.
+            caret = Integer.MAX_VALUE;
+        }
+    }
+
+    private Group root;
+    private TextBuffer text;
+    private Render render;
+    private ViewManager views;
+    private FileWatcher watcher;
+    private LayoutCache layoutCache;
+    private MultiCursor cursors;
+    private KeyEventHandler keys;
+    private boolean watching;
+    private Consumer<String> onTitle;
+
+    private ArrayList<Document> documents;
+    private Document active;
+
+    public Documents(final Group root, TextBuffer text, Render render, ViewManager views, FileWatcher watcher,
+                     LayoutCache layoutCache, MultiCursor cursors, KeyEventHandler keys) {
+        this.root = root;
+        this.text = text;
+        this.render = render;
+        this.views = views;
+        this.watcher = watcher;
+        this.layoutCache = layoutCache;
+        this.cursors = cursors;
+        this.keys = keys;
+        documents = new ArrayList<>();
+    }
+
+    /** Watch the file in front for changes made by other programs, following it from tab to tab. */
+    public void setWatching(boolean watching) {
+        this.watching = watching;
+    }
+
+    /** Call r with a new window title whenever another tab comes to the front. */
+    public void setOnTitle(Consumer<String> r) {
+        onTitle = r;
+    }
+
+    /** Open fileName in a new tab behind the others and start reading it; return the tab's index. */
+    public int open(String fileName) {
+        Document doc = new Document(fileName);
+        doc.loading = loader.submit(() -> load(doc));
+        documents.add(doc);
+        return documents.size() - 1;
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    /** Bring the tab delta places after the one in front, wrapping around, to the front. */
+    public void next(int delta) {
+        int n = documents.size();
+        show(((documents.indexOf(active) + delta) % n + n) % n);
+    }
+
+    /** Bring the tab at index to the front, waiting for its file if it is still being read. */
+    public void show(int index) {
+        Document next = documents.get(index);
+        if (next == active) {
+            return;
+        }
+        TextStore content = next.content;
+        if (content == null) {
+            try {
+                content = next.loading.get();
+            } catch (InterruptedException | ExecutionException e) {
+                System.out.println("Error when opening " + next.fileName + "; exception was: " + e);
+                documents.remove(next);
+                return;
+            }
+        }
+        if (active != null) {
+            stash(active);
+        }
+        views.closeDiff();
+        cursors.clear();
+        render.clearSelection();
+
+        // The nodes of the tab going to the back are dropped, the next tab gets new ones. All of the
+        // text goes, so keep the few children that are not text instead of looking up every node.
+        text.removeRange(0, text.size());
+        ArrayList<Node> kept = new ArrayList<>();
+        for (Node n : root.getChildren()) {
+            if (!(n instanceof Text)) {
+                kept.add(n);
+            }
+        }
+        root.getChildren().setAll(kept);
+        ArrayList<Text> texts = new ArrayList<>(content.length());
+        for (int i = 0; i < content.length(); i += 1) {
+            texts.add(new Text(Character.toString(content.charAt(i))));
+        }
+        text.insertAll(0, texts);
+        root.getChildren().addAll(0, texts);
+
+        active = next;
+        next.content = null;
+        next.loading = null;
+        watcher.stop();
+        watcher.setFile(next.fileName, next.dirty, next.snapshot);
+        if (watching) {
+            watcher.start();
+        }
+        layoutCache.setPath(Paths.get(next.fileName));
+        if (!next.dirty) {
+            layoutCache.synced();
+        }
+        keys.setFile(next.fileName, next.undo, next.redo, next.history);
+        text.moveTo(Math.min(next.caret, text.size()));
+        render.renderAll();
+        render.scrollLineToTop(Math.min(next.topLine, text.getLineIndex().lineCount() - 1));
+        render.renderCursor();
+        if (onTitle != null) {
+            onTitle.accept(title());
+        }
+    }
+
+    /** Close the tab in front, asking first if it has unsaved changes; the last tab stays open. */
+    public void closeActive() {
+        if (documents.size() < 2) {
+            return;
+        }
+        if (watcher.isDirty()) {
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION,
+                    active.fileName + " has changes that are not saved. Close it anyway?",
+                    ButtonType.OK, ButtonType.CANCEL);
+            alert.setHeaderText("Unsaved changes");
+            Optional<ButtonType> answer = alert.showAndWait();
+            if (!answer.isPresent() || answer.get() != ButtonType.OK) {
+                return;
+            }
+        }
+        int index = documents.indexOf(active);
+        documents.remove(index);
+        // Nothing of the closed tab needs to be kept.
+        active = null;
+        show(Math.min(index, documents.size() - 1));
+    }
+
+    // Keep the characters of the tab going to the back, in a store no bigger than they are.
+    private void stash(Document doc) {
+        TextStore store = text.getTextStore();
+        doc.content = new TextStore(store.length());
+        doc.content.insert(0, store);
+        doc.caret = text.getCurrentPos();
+        doc.topLine = render.getTopLine();
+        doc.dirty = watcher.isDirty();
+        if (watcher.getSnapshot() != null) {
+            doc.snapshot = watcher.getSnapshot();
+        }
+    }
+
+    // Runs on the loader thread: read the file, creating it if it is not there, and check its undo history.
+    private static TextStore load(Document doc) throws IOException {
+        File file = new File(doc.fileName);
+        if (!file.exists()) {
+            file.createNewFile();
+            return new TextStore();
+        }
+        // Taken before reading, so a change made while the file is read is still seen when it is shown.
+        doc.snapshot = FileSnapshot.read(file.toPath());
+        TextStore content = new TextStore((int) file.length());
+        FileIO.read(file.toPath(), Charset.defaultCharset(), content);
+        doc.history.open(content);
+        System.out.println("Successfully opened file " + doc.fileName);
+        return content;
+    }
+
+    // The names of every tab, the one in front in brackets.
+    private String title() {
+        StringBuilder title = new StringBuilder("Editor -");
+        for (Document doc : documents) {
+            String name = Paths.get(doc.fileName).getFileName().toString();
+            title.append(doc == active ? " [" + name + "]" : " " + name);
+        }
+        return title.toString();
+    }
+}
@@ -0,0 +1,211 @@
+package editor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A list of edits read from a script file, one command per line:
+ *
+ *   insert LINE:COLUMN TEXT        insert TEXT before the given character
+ *   delete LINE:COLUMN COUNT       delete COUNT characters starting at the given character
+ *   replace /OLD/NEW/              replace every OLD with NEW
+ *   substitute /REGEX/REPLACEMENT/ replace every match of REGEX, REPLACEMENT may use $1 etc.
+ *
+ * Lines and columns start at 1. In TEXT, OLD and NEW, \n, \t and \\ stand for a line break,
+ * a tab and a backslash. Any character can be used instead of / to delimit the arguments.
+ * Empty lines and lines starting with # are ignored.
+ */
+public class EditScript {
+    private static final int INSERT = 0;
+    private static final int DELETE = 1;
+    private static final int SUBSTITUTE = 2;
+
+    private static class Command {
+        int kind;
+        int line;
+        int column;
+        int count;
+        String text;
+        Pattern pattern;
+        // The line of the script the command came from, for error messages.
+        int scriptLine;
+    }
+
+    private ArrayList<Command> commands = new ArrayList<>();
+
+    public static EditScript read(Path path) throws IOException {
+        EditScript script = new EditScript();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String s;
+            int scriptLine = 0;
+            while ((s = reader.readLine()) != null) {
+                scriptLine += 1;
+                if (s.trim().isEmpty() || s.startsWith("#")) {
+                    continue;
+                }
+                script.commands.add(parse(s, scriptLine));
+            }
+        }
+        return script;
+    }
+
+    public int size() {
+        return commands.size();
+    }
+
+    /** Apply every command to store, keeping lines in step, and return how many edits were made. */
+    public int apply(TextStore store, LineIndex lines) {
+        int edits = 0;
+        for (Command command : commands) {
+            if (command.kind == SUBSTITUTE) {
+                edits += substitute(store, lines, command);
+                continue;
+            }
+            int offset = offsetOf(lines, command);
+            if (command.kind == INSERT) {
+                insert(store, lines, offset, command.text);
+            } else {
+                if (offset + command.count > store.length()) {
+                    throw new IllegalArgumentException(error(command, "deletes past the end of the file"));
+                }
+                delete(store, lines, offset, command.count);
+            }
+            edits += 1;
+        }
+        return edits;
+    }
+
+    private static Command parse(String s, int scriptLine) {
+        Command command = new Command();
+        command.scriptLine = scriptLine;
+        String[] words = s.split(" ", 3);
+        try {
+            if (words[0].equals("insert") || words[0].equals("delete")) {
+                String[] position = words[1].split(":");
+                command.line = Integer.parseInt(position[0]);
+                command.column = Integer.parseInt(position[1]);
+                if (words[0].equals("insert")) {
+                    command.kind = INSERT;
+                    command.text = unescape(words.length > 2 ? words[2] : "");
+                } else {
+                    command.kind = DELETE;
+                    command.count = Integer.parseInt(words[2].trim());
+                }
+                return command;
+            } else if (words[0].equals("replace") || words[0].equals("substitute")) {
+                String[] args = splitArguments(s.substring(words[0].length()).trim());
+                command.kind = SUBSTITUTE;
+                if (words[0].equals("replace")) {
+                    command.pattern = Pattern.compile(Pattern.quote(unescape(args[0])));
+                    command.text = Matcher.quoteReplacement(unescape(args[1]));
+                } else {
+                    command.pattern = Pattern.compile(args[0], Pattern.MULTILINE);
+                    command.text = args[1];
+                }
+                return command;
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Line " + scriptLine + " of the script can't be read: " + s, e);
+        }
+        throw new IllegalArgumentException("Line " + scriptLine + " of the script has an unknown command: " + s);
+    }
+
+    // Split "/a/b/" into a and b, a backslash keeps the delimiter that follows it.
+    private static String[] splitArguments(String s) {
+        char delimiter = s.charAt(0);
+        String[] args = new String[2];
+        int start = 1;
+        for (int k = 0; k < 2; k += 1) {
+            int i = start;
+            StringBuilder arg = new StringBuilder();
+            while (s.charAt(i) != delimiter) {
+                if (s.charAt(i) == '\\' && s.charAt(i + 1) == delimiter) {
+                    i += 1;
+                } else if (s.charAt(i) == '\\') {
+                    arg.append(s.charAt(i));
+                    i += 1;
+                }
+                arg.append(s.charAt(i));
+                i += 1;
+            }
+            args[k] = arg.toString();
+            start = i + 1;
+        }
+        return args;
+    }
+
+    private static String unescape(String s) {
+        StringBuilder result = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                i += 1;
+                c = s.charAt(i);
+                if (c == 'n') {
+                    c = '\n';
+                } else if (c == 't') {
+                    c = '\t';
+                }
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+
+    private static int offsetOf(LineIndex lines, Command command) {
+        int line = command.line - 1;
+        if (line < 0 || line >= lines.lineCount()) {
+            throw new IllegalArgumentException(error(command, "there is no line " + command.line));
+        }
+        int column = command.column - 1;
+        if (column < 0 || column > lines.lineLength(line)) {
+            throw new IllegalArgumentException(error(command, "line " + command.line + " has no column " + command.column));
+        }
+        return lines.lineStart(line) + column;
+    }
+
+    // Replace the matches from the last to the first, so the earlier ones keep their offsets.
+    private static int substitute(TextStore store, LineIndex lines, Command command) {
+        ArrayList<int[]> matches = new ArrayList<>();
+        ArrayList<String> replacements = new ArrayList<>();
+        Matcher m = command.pattern.matcher(store);
+        StringBuilder expanded = new StringBuilder();
+        int appended = 0;
+        while (m.find()) {
+            // appendReplacement also copies the text since the last match, skip past it.
+            int before = expanded.length() + m.start() - appended;
+            m.appendReplacement(expanded, command.text);
+            matches.add(new int[] {m.start(), m.end()});
+            replacements.add(expanded.substring(before));
+            appended = m.end();
+        }
+        for (int i = matches.size() - 1; i >= 0; i -= 1) {
+            int[] match = matches.get(i);
+            delete(store, lines, match[0], match[1] - match[0]);
+            insert(store, lines, match[0], replacements.get(i));
+        }
+        return matches.size();
+    }
+
+    private static void insert(TextStore store, LineIndex lines, int offset, String s) {
+        store.insert(offset, s);
+        lines.insert(offset, s);
+    }
+
+    private static void delete(TextStore store, LineIndex lines, int offset, int count) {
+        for (int i = count - 1; i >= 0; i -= 1) {
+            lines.remove(offset + i, store.charAt(offset + i));
+        }
+        store.delete(offset, count);
+    }
+
+    private static String error(Command command, String message) {
+        return "Line " + command.scriptLine + " of the script can't be applied, " + message;
+    }
+}
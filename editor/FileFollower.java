@@ -0,0 +1,147 @@
+package editor;
+
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.text.Text;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a file that other programs append to, like tail -f.
+ * A background thread polls the file length and decodes only the bytes past the last one read;
+ * the new text is appended to the buffer in one step and only the tail is laid out again.
+ * With a line limit, the oldest lines are dropped so a file that grows forever stays bounded.
+ */
+public class FileFollower {
+    private static final long POLL_MILLIS = 250;
+    // Read at most this much per step, so a big jump in length does not need one huge buffer.
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private Group root;
+    private TextBuffer text;
+    private Render render;
+    private Path path;
+    private int maxLines;
+
+    private ScheduledExecutorService poller;
+    private CharsetDecoder decoder;
+    // Bytes after the last whole character, kept for the next read.
+    private ByteBuffer leftover;
+    private long position;
+
+    /** Follow fileName from byte position on; maxLines of 0 keeps every line. */
+    public FileFollower(final Group root, TextBuffer text, Render render, String fileName, long position, int maxLines) {
+        this.root = root;
+        this.text = text;
+        this.render = render;
+        this.path = Paths.get(fileName);
+        this.position = position;
+        this.maxLines = maxLines;
+        // The file is read with the platform charset, like when it was opened.
+        decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        leftover = ByteBuffer.allocate(0);
+    }
+
+    public void start() {
+        trim();
+        poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "file-follower");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+    }
+
+    // Runs on the poller thread.
+    private void poll() {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < position) {
+                // The file was truncated or replaced, start over from its beginning.
+                position = 0;
+                leftover = ByteBuffer.allocate(0);
+                decoder.reset();
+                Platform.runLater(this::clear);
+            }
+            StringBuilder added = new StringBuilder();
+            while (position < size) {
+                int n = (int) Math.min(CHUNK_SIZE, size - position);
+                ByteBuffer bytes = ByteBuffer.allocate(leftover.remaining() + n);
+                bytes.put(leftover);
+                while (bytes.hasRemaining()) {
+                    int read = channel.read(bytes, position);
+                    if (read <= 0) {
+                        break;
+                    }
+                    position += read;
+                }
+                bytes.flip();
+                CharBuffer chars = CharBuffer.allocate((int) (bytes.remaining() * decoder.maxCharsPerByte()) + 1);
+                decoder.decode(bytes, chars, false);
+                chars.flip();
+                added.append(chars);
+                leftover = bytes.slice();
+            }
+            if (added.length() > 0) {
+                String s = added.toString();
+                Platform.runLater(() -> append(s));
+            }
+        } catch (IOException e) {
+            // The file may be in the middle of being rotated, try again on the next poll.
+        }
+    }
+
+    // Runs on the application thread.
+    private void append(String s) {
+        int pos = text.size();
+        ArrayList<Text> added = new ArrayList<>(s.length());
+        for (int i = 0; i < s.length(); i += 1) {
+            added.add(new Text(Character.toString(s.charAt(i))));
+        }
+        text.insertAll(pos, added);
+        root.getChildren().addAll(Math.min(pos, root.getChildren().size()), added);
+        // The cursor stays at the end, so the window stays at the bottom.
+        text.moveTo(text.size());
+        render.renderEdit(pos, text.size());
+        trim();
+    }
+
+    // Drop the oldest lines beyond the limit.
+    private void trim() {
+        LineIndex lines = text.getLineIndex();
+        if (maxLines <= 0 || lines.lineCount() <= maxLines) {
+            return;
+        }
+        int cut = lines.lineStart(lines.lineCount() - maxLines);
+        root.getChildren().removeAll(new HashSet<>(text.removeRange(0, cut)));
+        text.moveTo(text.size());
+        render.renderEdit(0, 0);
+    }
+
+    private void clear() {
+        root.getChildren().removeAll(new HashSet<>(text.removeRange(0, text.size())));
+        render.renderAll();
+    }
+}
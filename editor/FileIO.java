@@ -0,0 +1,43 @@
+package editor;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes documents a chunk at a time, for the window as well as for the batch mode.
+ * Neither direction goes through JavaFX, and nothing is ever held as one big String.
+ */
+public class FileIO {
+    private static final int CHUNK_SIZE = 8192;
+
+    /** Append the content of path to store. */
+    public static void read(Path path, Charset charset, TextStore store) throws IOException {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(path), charset)) {
+            char[] chunk = new char[CHUNK_SIZE];
+            int n;
+            while ((n = reader.read(chunk)) != -1) {
+                store.insert(store.length(), CharBuffer.wrap(chunk, 0, n));
+            }
+        }
+    }
+
+    /** Replace the content of path with the characters of store. */
+    public static void write(Path path, Charset charset, TextStore store) throws IOException {
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(path), charset)) {
+            char[] chunk = new char[CHUNK_SIZE];
+            int length = store.length();
+            for (int start = 0; start < length; start += CHUNK_SIZE) {
+                int end = Math.min(length, start + CHUNK_SIZE);
+                store.getChars(start, end, chunk, 0);
+                writer.write(chunk, 0, end - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Hashes of a file's fixed-size blocks, aligned once to the start and once to the end of the file.
+ * Comparing two snapshots finds the bytes that are the same at the front and at the back,
+ * so only the region in between has to be read and decoded again.
+ */
+public class FileSnapshot {
+    public static final int BLOCK_SIZE = 4096;
+    // Files are mapped a segment at a time so that huge files still fit the address space.
+    private static final int SEGMENT_BLOCKS = 16384;
+
+    private long length;
+    private long[] headHashes;
+    private long[] tailHashes;
+    // The bytes past the last whole block from the start, and before the first whole block from the end.
+    private long headRest;
+    private long tailRest;
+
+    private FileSnapshot() {
+    }
+
+    public static FileSnapshot read(Path path) throws IOException {
+        FileSnapshot snapshot = new FileSnapshot();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            snapshot.length = channel.size();
+            int blocks = (int) (snapshot.length / BLOCK_SIZE);
+            snapshot.headHashes = hashBlocks(channel, 0, blocks);
+            snapshot.tailHashes = hashBlocks(channel, snapshot.length % BLOCK_SIZE, blocks);
+            int rest = (int) (snapshot.length % BLOCK_SIZE);
+            snapshot.headRest = hashRange(channel, (long) blocks * BLOCK_SIZE, rest);
+            snapshot.tailRest = hashRange(channel, 0, rest);
+        }
+        return snapshot;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /** Return true if both snapshots describe the same bytes. */
+    public boolean sameContent(FileSnapshot other) {
+        return length == other.length
+                && headRest == other.headRest
+                && tailRest == other.tailRest
+                && Arrays.equals(headHashes, other.headHashes)
+                && Arrays.equals(tailHashes, other.tailHashes);
+    }
+
+    /** Return how many bytes at the start of the file are unchanged, a multiple of BLOCK_SIZE. */
+    public long matchingPrefix(FileSnapshot other) {
+        int n = Math.min(headHashes.length, other.headHashes.length);
+        int k = 0;
+        while (k < n && headHashes[k] == other.headHashes[k]) {
+            k += 1;
+        }
+        return (long) k * BLOCK_SIZE;
+    }
+
+    /** Return how many bytes at the end of the file are unchanged and do not overlap prefix. */
+    public long matchingSuffix(FileSnapshot other, long prefix) {
+        int n = Math.min(tailHashes.length, other.tailHashes.length);
+        int k = 0;
+        while (k < n && tailHashes[tailHashes.length - 1 - k] == other.tailHashes[other.tailHashes.length - 1 - k]) {
+            k += 1;
+        }
+        long suffix = (long) k * BLOCK_SIZE;
+        return Math.max(0, Math.min(suffix, Math.min(length, other.length) - prefix));
+    }
+
+    // Hash count whole blocks starting at byte start, with 64-bit FNV-1a.
+    private static long[] hashBlocks(FileChannel channel, long start, int count) throws IOException {
+        long[] hashes = new long[count];
+        for (int first = 0; first < count; first += SEGMENT_BLOCKS) {
+            int blocks = Math.min(SEGMENT_BLOCKS, count - first);
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                    start + (long) first * BLOCK_SIZE, (long) blocks * BLOCK_SIZE);
+            for (int b = 0; b < blocks; b += 1) {
+                long h = 0xcbf29ce484222325L;
+                int base = b * BLOCK_SIZE;
+                for (int i = 0; i < BLOCK_SIZE; i += 1) {
+                    h ^= segment.get(base + i) & 0xff;
+                    h *= 0x100000001b3L;
+                }
+                hashes[first + b] = h;
+            }
+        }
+        return hashes;
+    }
+
+    // Hash count bytes starting at byte start, fewer than a block, with 64-bit FNV-1a.
+    private static long hashRange(FileChannel channel, long start, int count) throws IOException {
+        long h = 0xcbf29ce484222325L;
+        if (count == 0) {
+            return h;
+        }
+        MappedByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY, start, count);
+        for (int i = 0; i < count; i += 1) {
+            h ^= range.get(i) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
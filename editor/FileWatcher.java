@@ -0,0 +1,318 @@
+package editor;
+
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
+import javafx.scene.text.Text;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the open file for changes made by other programs.
+ * The file is compared block by block with the snapshot taken when it was last loaded or saved,
+ * and only the bytes between the unchanged head and tail are decoded and put back into the buffer.
+ */
+public class FileWatcher implements BufferListener {
+    // Editors and build tools often write a file in several steps, so wait for them to settle.
+    private static final long SETTLE_MILLIS = 200;
+
+    private Group root;
+    private TextBuffer text;
+    private Render render;
+    private Path path;
+    private Charset charset;
+
+    private FileSnapshot snapshot;
+    private WatchService watchService;
+    private Runnable onReload;
+    // True if the buffer was edited since it last matched the file.
+    private boolean dirty;
+    private boolean reloading;
+    private boolean asking;
+
+    public FileWatcher(final Group root, TextBuffer text, Render render, String fileName) {
+        this.root = root;
+        this.text = text;
+        this.render = render;
+        this.path = Paths.get(fileName).toAbsolutePath();
+        // The file is read and written with the platform charset.
+        this.charset = Charset.defaultCharset();
+        text.addListener(this);
+    }
+
+    /**
+     * Start watching the file's directory. Without a snapshot from setFile the file is remembered as
+     * it is now; with one, a file changed since it was taken is offered for reload as usual.
+     */
+    public void start() {
+        if (snapshot == null) {
+            takeSnapshot();
+        } else if (Files.exists(path)) {
+            try {
+                FileSnapshot current = FileSnapshot.read(path);
+                if (!snapshot.sameContent(current)) {
+                    Platform.runLater(() -> fileChanged(current));
+                }
+            } catch (IOException e) {
+                // Being written right now, the watcher will see it settle.
+            }
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.out.println("Can't watch " + path + " for changes: " + e.getMessage());
+            return;
+        }
+        Thread watcher = new Thread(this::watch, "file-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    public void stop() {
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            // Nothing is left to watch.
+        }
+    }
+
+    /**
+     * Watch fileName from the next start on; dirty tells whether the buffer differs from it, and
+     * snapshot is the version of the file it was last compared with, or null if there is none.
+     */
+    public void setFile(String fileName, boolean dirty, FileSnapshot snapshot) {
+        path = Paths.get(fileName).toAbsolutePath();
+        this.snapshot = snapshot;
+        this.dirty = dirty;
+    }
+
+    /** The version of the file the buffer was last compared with, or null if the file is not watched. */
+    public FileSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /** Return true if the buffer was edited since it last matched the file. */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /** Run r after the buffer was reloaded from disk. */
+    public void setOnReload(Runnable r) {
+        onReload = r;
+    }
+
+    /** The buffer was just written to the file, so it matches the file again. */
+    public void markSaved() {
+        takeSnapshot();
+        dirty = false;
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        dirty |= !reloading;
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        dirty |= !reloading;
+    }
+
+    private void takeSnapshot() {
+        try {
+            snapshot = Files.exists(path) ? FileSnapshot.read(path) : null;
+        } catch (IOException e) {
+            snapshot = null;
+        }
+    }
+
+    // Runs on the watcher thread: wait for events on the file, let them settle, then hash the file.
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = containsFile(key);
+                key.reset();
+                while (changed && (key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    containsFile(key);
+                    key.reset();
+                }
+                if (!changed || !Files.exists(path)) {
+                    continue;
+                }
+                try {
+                    FileSnapshot newSnapshot = FileSnapshot.read(path);
+                    Platform.runLater(() -> fileChanged(newSnapshot));
+                } catch (IOException e) {
+                    // The file is still being written, the next event will bring it back here.
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The watcher was stopped.
+        }
+    }
+
+    private boolean containsFile(WatchKey key) {
+        boolean found = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (path.getFileName().equals(event.context())) {
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    // Runs on the application thread.
+    private void fileChanged(FileSnapshot newSnapshot) {
+        if (asking || (snapshot != null && snapshot.sameContent(newSnapshot))) {
+            return;
+        }
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.setTitle("File changed");
+        alert.setHeaderText(path.getFileName() + " was changed by another program.");
+        alert.setContentText(dirty ? "Reload it and lose your unsaved changes?" : "Reload the changed part?");
+        asking = true;
+        Optional<ButtonType> answer = alert.showAndWait();
+        asking = false;
+        if (answer.isPresent() && answer.get() == ButtonType.OK) {
+            try {
+                reload(newSnapshot);
+            } catch (IOException e) {
+                System.out.println("Error when reloading; exception was: " + e);
+                return;
+            }
+            dirty = false;
+        }
+        // Either way this version of the file has been seen, don't ask about it again.
+        snapshot = newSnapshot;
+    }
+
+    private void reload(FileSnapshot newSnapshot) throws IOException {
+        // Unsaved edits or a charset with shift states make the old bytes useless, read everything.
+        long prefixBytes = 0;
+        long suffixBytes = 0;
+        if (!dirty && snapshot != null && canMapBytes()) {
+            prefixBytes = snapshot.matchingPrefix(newSnapshot);
+            suffixBytes = snapshot.matchingSuffix(newSnapshot, prefixBytes);
+        }
+
+        // Turn the unchanged bytes into unchanged characters, ending both on a whole character.
+        TextStore store = text.getTextStore();
+        int size = store.length();
+        int start = 0;
+        long bytes = 0;
+        while (start < size && bytes + encodedLength(store, start) <= prefixBytes) {
+            bytes += encodedLength(store, start);
+            start += 1;
+        }
+        if (start > 0 && Character.isHighSurrogate(store.charAt(start - 1))) {
+            start -= 1;
+            bytes -= 2;
+        }
+        prefixBytes = bytes;
+        int end = size;
+        bytes = 0;
+        while (end > start && bytes + encodedLength(store, end - 1) <= suffixBytes) {
+            bytes += encodedLength(store, end - 1);
+            end -= 1;
+        }
+        if (end < size && end > start && Character.isLowSurrogate(store.charAt(end))) {
+            end += 1;
+            bytes -= 2;
+        }
+        suffixBytes = bytes;
+
+        String region = readRegion(prefixBytes, newSnapshot.length() - suffixBytes);
+
+        LineIndex lines = text.getLineIndex();
+        int cursor = text.getCurrentPos();
+        int topLine = render.getTopLine();
+        int removedLines = lines.lineOfOffset(end) - lines.lineOfOffset(start);
+        boolean topAfterRegion = lines.lineStart(topLine) >= end;
+
+        reloading = true;
+        ArrayList<Text> removed = text.removeRange(start, end);
+        root.getChildren().removeAll(new HashSet<>(removed));
+        ArrayList<Text> inserted = new ArrayList<>(region.length());
+        for (int i = 0; i < region.length(); i += 1) {
+            inserted.add(new Text(Character.toString(region.charAt(i))));
+        }
+        text.insertAll(start, inserted);
+        root.getChildren().addAll(Math.min(start, root.getChildren().size()), inserted);
+        reloading = false;
+
+        // Keep the cursor and the window where they were relative to the unchanged text around them.
+        int delta = region.length() - (end - start);
+        if (cursor >= end) {
+            cursor += delta;
+        } else if (cursor > start) {
+            cursor = start;
+        }
+        text.moveTo(cursor);
+        render.renderEdit(start, start + region.length());
+        if (topAfterRegion) {
+            topLine += lines.lineOfOffset(start + region.length()) - lines.lineOfOffset(start) - removedLines;
+        }
+        render.scrollLineToTop(Math.min(topLine, lines.lineCount() - 1));
+        if (onReload != null) {
+            onReload.run();
+        }
+    }
+
+    // Return true if every character's byte length can be worked out on its own.
+    private boolean canMapBytes() {
+        return charset.equals(StandardCharsets.UTF_8) || charset.newEncoder().maxBytesPerChar() == 1;
+    }
+
+    // Return how many bytes the character at pos takes in the file.
+    private int encodedLength(TextStore store, int pos) {
+        if (!charset.equals(StandardCharsets.UTF_8)) {
+            return 1;
+        }
+        char c = store.charAt(pos);
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (Character.isSurrogate(c)) {
+            // A surrogate pair is four bytes, two for each half.
+            return 2;
+        }
+        return 3;
+    }
+
+    // Read and decode only the bytes [from, to) of the file.
+    private String readRegion(long from, long to) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, to - from));
+            long position = from;
+            while (buffer.hasRemaining() && channel.read(buffer, position) > 0) {
+                position = from + buffer.position();
+            }
+            buffer.flip();
+            return charset.decode(buffer).toString();
+        }
+    }
+}
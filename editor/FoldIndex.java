@@ -0,0 +1,354 @@
+package editor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Foldable regions and the folds that are collapsed.
+ * Every logical line has a summary of its indentation and of the brackets it opens and closes,
+ * kept in a gap buffer like the minimap's and brought up to date over the edited lines only when
+ * a region is asked for. A line whose brackets are left open folds up to the line that closes them;
+ * any other line folds the lines indented deeper below it.
+ * Collapsed folds may nest; they move with edits around them and open again when an edit reaches
+ * into the lines they hide or the line break that ends their header.
+ */
+public class FoldIndex implements BufferListener {
+    private static final int BLANK = 1 << 24;
+
+    /** A collapsed region: line start stays visible, the lines after it up to end are hidden. */
+    public static class Fold {
+        public int start;
+        public int end;
+        // The line break that ends the header line, and the first node after the hidden lines.
+        public TextBuffer.Node header;
+        public TextBuffer.Node after;
+
+        public Fold(int start, int end, TextBuffer.Node header, TextBuffer.Node after) {
+            this.start = start;
+            this.end = end;
+            this.header = header;
+            this.after = after;
+        }
+    }
+
+    private TextBuffer text;
+    private LineIndex lines;
+
+    // Built the first time a region is asked for; lines whose summary is stale are dirtyFrom to dirtyTo.
+    private LineSummary summaries;
+    private int dirtyFrom;
+    private int dirtyTo;
+
+    // Collapsed folds sorted by their header line, and by the node ending their header.
+    private ArrayList<Fold> folds;
+    private HashMap<TextBuffer.Node, Fold> byHeader;
+    // Set when an edit opened a fold; its lines have to be placed and shown again.
+    private boolean broken;
+
+    public FoldIndex(TextBuffer text) {
+        this.text = text;
+        this.lines = text.getLineIndex();
+        folds = new ArrayList<>();
+        byHeader = new HashMap<>();
+        text.addListener(this);
+    }
+
+    /**
+     * Return the first and last line of the region that starts at line, or else of the nearest
+     * region around it; null if line is in none. The last line is never folded away.
+     */
+    public int[] regionAt(int line) {
+        update();
+        int[] region = regionFrom(line);
+        int indent = indentOf(line);
+        for (int header = line - 1; header >= 0 && region == null; header -= 1) {
+            int summary = summaries.get(header);
+            if ((summary & BLANK) != 0 || indent(summary) >= indent) {
+                continue;
+            }
+            region = regionFrom(header);
+            if (region != null && region[1] < line) {
+                region = null;
+            }
+            indent = indent(summary);
+        }
+        return region;
+    }
+
+    // The region with its header at line, or null.
+    private int[] regionFrom(int header) {
+        int summary = summaries.get(header);
+        if ((summary & BLANK) != 0) {
+            return null;
+        }
+        int lastLine = lines.lineCount() - 1;
+        int end = -1;
+        if (delta(summary) > low(summary)) {
+            // The region ends in front of the line that closes the last bracket the header opened.
+            int depth = delta(summary);
+            for (int line = header + 1; line <= lastLine; line += 1) {
+                int s = summaries.get(line);
+                if (depth + low(s) < delta(summary)) {
+                    end = line - 1;
+                    break;
+                }
+                depth += delta(s);
+            }
+        }
+        if (end < 0) {
+            // The lines below that are indented deeper, leaving out blank lines at the end.
+            for (int line = header + 1; line <= lastLine; line += 1) {
+                int s = summaries.get(line);
+                if ((s & BLANK) != 0) {
+                    continue;
+                }
+                if (indent(s) <= indent(summary)) {
+                    break;
+                }
+                end = line;
+            }
+        }
+        // A character must follow the hidden lines, the layout goes on from it.
+        end = Math.min(end, lastLine - 1);
+        if (end >= 0 && lines.lineStart(end + 1) == text.size()) {
+            end -= 1;
+        }
+        return end > header ? new int[] {header, end} : null;
+    }
+
+    // The indentation of line, or of the next line with text if it is blank.
+    private int indentOf(int line) {
+        int lineCount = lines.lineCount();
+        while (line < lineCount && (summaries.get(line) & BLANK) != 0) {
+            line += 1;
+        }
+        return line < lineCount ? indent(summaries.get(line)) : 0;
+    }
+
+    public void add(Fold fold) {
+        int i = 0;
+        while (i < folds.size() && folds.get(i).start < fold.start) {
+            i += 1;
+        }
+        folds.add(i, fold);
+        byHeader.put(fold.header, fold);
+    }
+
+    public void remove(Fold fold) {
+        folds.remove(fold);
+        byHeader.remove(fold.header);
+    }
+
+    public boolean isEmpty() {
+        return folds.isEmpty();
+    }
+
+    public ArrayList<Fold> getFolds() {
+        return folds;
+    }
+
+    /** Return the fold whose header is line, or null. */
+    public Fold foldAt(int line) {
+        int lo = 0;
+        int hi = folds.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int start = folds.get(mid).start;
+            if (start < line) {
+                lo = mid + 1;
+            } else if (start > line) {
+                hi = mid - 1;
+            } else {
+                return folds.get(mid);
+            }
+        }
+        return null;
+    }
+
+    /** Return the fold whose header line ends with the line break node newline, or null. */
+    public Fold foldAfter(TextBuffer.Node newline) {
+        return byHeader.isEmpty() ? null : byHeader.get(newline);
+    }
+
+    /** Return the outermost fold that hides line, or null if line is visible. */
+    public Fold hiding(int line) {
+        for (Fold fold : folds) {
+            if (fold.start < line && line <= fold.end) {
+                return fold;
+            }
+        }
+        return null;
+    }
+
+    /** Return the last line hidden under line if it is the header of a fold, otherwise line itself. */
+    public int lastHidden(int line) {
+        Fold fold = foldAt(line);
+        return fold == null ? line : fold.end;
+    }
+
+    /** Return the number of characters on the lines fold hides. */
+    public int hiddenLength(Fold fold) {
+        return lines.lineStart(fold.end + 1) - lines.lineStart(fold.start + 1);
+    }
+
+    /** Return true if an edit opened a fold since the last takeBroken. */
+    public boolean isBroken() {
+        return broken;
+    }
+
+    /** Return true, once, after an edit opened a fold. */
+    public boolean takeBroken() {
+        boolean was = broken;
+        broken = false;
+        return was;
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        int added = newlines(s);
+        if (summaries != null) {
+            for (int i = 0; i < added; i += 1) {
+                summaries.insertLine(line + 1, 0);
+            }
+            if (dirtyTo > line) {
+                dirtyTo += added;
+            }
+            markDirty(line, line + added);
+        }
+        for (int i = folds.size() - 1; i >= 0; i -= 1) {
+            Fold fold = folds.get(i);
+            if (line == fold.end + 1) {
+                if (offset == lines.lineStart(line)) {
+                    // The text went in front of the first node after the fold.
+                    fold.after = text.nodeAt(offset);
+                }
+            } else if (line < fold.start || (line == fold.start && offset == lines.lineStart(line))) {
+                fold.start += added;
+                fold.end += added;
+            } else if (line <= fold.end && (line > fold.start || added > 0)) {
+                open(fold);
+            }
+        }
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        int removed = newlines(s);
+        if (summaries != null) {
+            for (int i = 0; i < removed; i += 1) {
+                summaries.removeLine(line + 1);
+            }
+            if (dirtyTo > line) {
+                dirtyTo = Math.max(line, dirtyTo - removed);
+            }
+            markDirty(line, line);
+        }
+        for (int i = folds.size() - 1; i >= 0; i -= 1) {
+            Fold fold = folds.get(i);
+            if (line == fold.end + 1) {
+                if (offset == lines.lineStart(line)) {
+                    if (offset == text.size()) {
+                        open(fold);
+                    } else {
+                        fold.after = text.nodeAt(offset);
+                    }
+                }
+            } else if (line + removed <= fold.start) {
+                fold.start -= removed;
+                fold.end -= removed;
+            } else if (line <= fold.end) {
+                open(fold);
+            }
+        }
+    }
+
+    private void open(Fold fold) {
+        remove(fold);
+        broken = true;
+    }
+
+    private static int newlines(String s) {
+        int count = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\n') {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    private void markDirty(int from, int to) {
+        dirtyFrom = Math.min(dirtyFrom, from);
+        dirtyTo = Math.max(dirtyTo, to);
+    }
+
+    // Summarize every line the first time, and after that only the lines edited since the last time.
+    private void update() {
+        int lineCount = lines.lineCount();
+        if (summaries == null) {
+            summaries = new LineSummary();
+            for (int line = 1; line < lineCount; line += 1) {
+                summaries.insertLine(line, 0);
+            }
+            dirtyFrom = 0;
+            dirtyTo = lineCount - 1;
+        }
+        int to = Math.min(dirtyTo, lineCount - 1);
+        if (dirtyFrom <= to) {
+            TextStore store = text.getTextStore();
+            int start = lines.lineStart(dirtyFrom);
+            for (int line = dirtyFrom; line <= to; line += 1) {
+                int length = lines.lineLength(line);
+                summaries.set(line, summarize(store, start, line < lineCount - 1 ? length - 1 : length));
+                start += length;
+            }
+        }
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+    }
+
+    // Pack whether the line is blank, its indentation, and the change and lowest point of the
+    // bracket depth along it, each clamped to a byte.
+    private static int summarize(TextStore store, int start, int length) {
+        int indent = 0;
+        while (indent < length && (store.charAt(start + indent) == ' ' || store.charAt(start + indent) == '\t')) {
+            indent += 1;
+        }
+        int depth = 0;
+        int low = 0;
+        for (int i = indent; i < length; i += 1) {
+            char c = store.charAt(start + i);
+            if (c == '{' || c == '[' || c == '(') {
+                depth += 1;
+            } else if (c == '}' || c == ']' || c == ')') {
+                depth -= 1;
+                low = Math.min(low, depth);
+            }
+        }
+        int blank = isBlank(store, start + indent, length - indent) ? BLANK : 0;
+        depth = Math.max(-127, Math.min(127, depth));
+        low = Math.max(-127, low);
+        return blank | Math.min(indent, 255) << 16 | (depth + 128) << 8 | -low;
+    }
+
+    private static boolean isBlank(TextStore store, int start, int length) {
+        for (int i = 0; i < length; i += 1) {
+            if (!Character.isWhitespace(store.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indent(int summary) {
+        return summary >>> 16 & 0xff;
+    }
+
+    private static int delta(int summary) {
+        return (summary >>> 8 & 0xff) - 128;
+    }
+
+    private static int low(int summary) {
+        return -(summary & 0xff);
+    }
+}
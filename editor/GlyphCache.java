@@ -0,0 +1,91 @@
+package editor;
+
+import javafx.geometry.VPos;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/** Fonts and glyph advances shared by every view, so each character is measured once per font. */
+public class GlyphCache {
+    private HashMap<String, Font> fonts;
+    private IdentityHashMap<Font, int[][]> widths;
+    private IdentityHashMap<Font, Integer> heights;
+
+    // An off-screen Text node used only for measuring.
+    private Text measure;
+
+    public GlyphCache() {
+        fonts = new HashMap<>();
+        widths = new IdentityHashMap<>();
+        heights = new IdentityHashMap<>();
+        measure = new Text();
+        measure.setTextOrigin(VPos.TOP);
+    }
+
+    /** Return the shared Font instance for this family and size. */
+    public Font font(String name, int size) {
+        String key = name + ":" + size;
+        Font f = fonts.get(key);
+        if (f == null) {
+            f = Font.font(name, size);
+            fonts.put(key, f);
+        }
+        return f;
+    }
+
+    /** Return the rounded advance of c in font. */
+    public int width(char c, Font font) {
+        int[][] pages = widths.get(font);
+        if (pages == null) {
+            pages = new int[256][];
+            widths.put(font, pages);
+        }
+        int[] page = pages[c >> 8];
+        if (page == null) {
+            page = new int[256];
+            Arrays.fill(page, -1);
+            pages[c >> 8] = page;
+        }
+        int w = page[c & 0xff];
+        if (w < 0) {
+            measure.setFont(font);
+            measure.setText(c == '\n' ? TextBuffer.NEWLINE : String.valueOf(c));
+            w = (int) Math.round(measure.getLayoutBounds().getWidth());
+            page[c & 0xff] = w;
+        }
+        return w;
+    }
+
+    /** Measure every character of s that is not measured in font yet. */
+    public void measureAll(CharSequence s, Font font) {
+        for (int i = 0; i < s.length(); i += 1) {
+            width(s.charAt(i), font);
+        }
+    }
+
+    /** Return how many pages of 256 advances are measured, over every font. */
+    public int pageCount() {
+        int count = 0;
+        for (int[][] pages : widths.values()) {
+            for (int[] page : pages) {
+                count += page == null ? 0 : 1;
+            }
+        }
+        return count;
+    }
+
+    /** Return the rounded height of one line of text in font. */
+    public int lineHeight(Font font) {
+        Integer h = heights.get(font);
+        if (h == null) {
+            measure.setFont(font);
+            measure.setText("");
+            h = (int) Math.round(measure.getLayoutBounds().getHeight());
+            heights.put(font, h);
+        }
+        return h;
+    }
+}
@@ -0,0 +1,482 @@
+package editor;
+
+import javafx.event.EventHandler;
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.control.TextInputDialog;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * A file shown as rows of sixteen bytes: the offset, the bytes in hex and the bytes as ASCII.
+ * The file is memory-mapped a gigabyte at a time and never read onto the heap; only the rows in
+ * the window get Text nodes, filled straight from the mapping. Bytes are overwritten in place,
+ * never inserted or deleted: typed bytes are kept aside until Ctrl+S writes each run of them
+ * at its position in the file.
+ */
+public class HexView implements EventHandler<KeyEvent> {
+    private static final int BYTES_PER_ROW = 16;
+    private static final int SEGMENT_BITS = 30;
+    // A file is taken to be text if its first bytes have no NUL and decode without errors.
+    private static final int SNIFF_BYTES = 8192;
+    private static final String HEX_DIGITS = "0123456789abcdef";
+    private static final Color EDITED = Color.rgb(255, 200, 120, 0.6);
+    private static final Color OTHER_COLUMN = Color.rgb(0, 0, 0, 0.12);
+
+    private Path path;
+    private FileChannel channel;
+    private long size;
+    private MappedByteBuffer[] segments;
+    // Bytes typed since the last save by their offset, and every overwrite with the byte it replaced
+    // (-1 if the byte was not edited before) for undo.
+    private TreeMap<Long, Byte> edits;
+    private ArrayList<long[]> undo;
+
+    private GlyphCache glyphs;
+    private Font font;
+    private int charWidth;
+    private int lineHeight;
+    private int offsetDigits;
+    private int width;
+    private int height;
+
+    private Group viewRoot;
+    private Rectangle background;
+    private Group marks;
+    private Group texts;
+    private Rectangle echo;
+    private Cursor c;
+    private int usedMarks;
+
+    private long top;
+    private long caret;
+    // Whether the cursor is in the ASCII column, and whether the high digit of its byte was typed.
+    private boolean ascii;
+    private boolean lowNibble;
+
+    public HexView(Path path, GlyphCache glyphs, Font font) throws IOException {
+        this.path = path;
+        this.glyphs = glyphs;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+        segments = new MappedByteBuffer[(int) ((size >>> SEGMENT_BITS) + 1)];
+        edits = new TreeMap<>();
+        undo = new ArrayList<>();
+        offsetDigits = Math.max(8, (64 - Long.numberOfLeadingZeros(Math.max(1, size - 1)) + 3) / 4);
+
+        background = new Rectangle(0, 0, Color.WHITE);
+        marks = new Group();
+        texts = new Group();
+        echo = new Rectangle(0, 0, 0, 0);
+        echo.setFill(OTHER_COLUMN);
+        c = new Cursor();
+        viewRoot = new Group(background, marks, echo, texts, c);
+        viewRoot.setOnMousePressed(mouseEvent -> {
+            moveCaret(mouseEvent.getX(), mouseEvent.getY());
+            mouseEvent.consume();
+        });
+        viewRoot.setOnScroll(scrollEvent -> {
+            scrollBy(scrollEvent.getDeltaY() > 0 ? -3 : 3);
+            scrollEvent.consume();
+        });
+        setFont(font);
+    }
+
+    /** Return true if the start of the file at path does not look like text in charset. */
+    public static boolean isBinary(Path path, Charset charset) throws IOException {
+        byte[] start = new byte[SNIFF_BYTES];
+        int n = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while (n < start.length && (read = in.read(start, n, start.length - n)) > 0) {
+                n += read;
+            }
+        }
+        for (int i = 0; i < n; i += 1) {
+            if (start[i] == 0) {
+                return true;
+            }
+        }
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        // The sample may end inside a character, so only errors before its end count.
+        ByteBuffer in = ByteBuffer.wrap(start, 0, n);
+        CharBuffer out = CharBuffer.allocate(n + 1);
+        return decoder.decode(in, out, n < start.length).isError();
+    }
+
+    public Group getRoot() {
+        return viewRoot;
+    }
+
+    public void setBounds(int width, int height) {
+        this.width = width;
+        this.height = height;
+        background.setWidth(width);
+        background.setHeight(height);
+        render();
+    }
+
+    public void setFont(Font font) {
+        this.font = font;
+        // Columns line up only in a font where every character is as wide as '0'.
+        charWidth = glyphs.width('0', font);
+        lineHeight = glyphs.lineHeight(font);
+        c.setHeight(lineHeight);
+        echo.setHeight(lineHeight);
+        render();
+    }
+
+    /** Return true if bytes were typed that are not written to the file yet. */
+    public boolean isDirty() {
+        return !edits.isEmpty();
+    }
+
+    /** Release the mapping and the file. */
+    public void dispose() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing is left to release.
+        }
+    }
+
+    @Override
+    public void handle(KeyEvent keyEvent) {
+        if (keyEvent.getEventType() == KeyEvent.KEY_TYPED) {
+            String typed = keyEvent.getCharacter();
+            if (!keyEvent.isShortcutDown() && typed.length() == 1) {
+                type(typed.charAt(0));
+            }
+            keyEvent.consume();
+            return;
+        }
+        if (keyEvent.getEventType() != KeyEvent.KEY_PRESSED) {
+            return;
+        }
+        long rows = Math.max(1, height / lineHeight - 1);
+        KeyCode code = keyEvent.getCode();
+        boolean shortCut = keyEvent.isShortcutDown();
+        if (code == KeyCode.LEFT) {
+            moveTo(caret - 1);
+        } else if (code == KeyCode.RIGHT) {
+            moveTo(caret + 1);
+        } else if (code == KeyCode.UP) {
+            moveTo(caret - BYTES_PER_ROW);
+        } else if (code == KeyCode.DOWN) {
+            moveTo(caret + BYTES_PER_ROW);
+        } else if (code == KeyCode.PAGE_UP) {
+            top -= rows;
+            moveTo(caret - rows * BYTES_PER_ROW);
+        } else if (code == KeyCode.PAGE_DOWN) {
+            top += rows;
+            moveTo(caret + rows * BYTES_PER_ROW);
+        } else if (code == KeyCode.HOME) {
+            moveTo(shortCut ? 0 : caret - caret % BYTES_PER_ROW);
+        } else if (code == KeyCode.END) {
+            moveTo(shortCut ? size - 1 : caret - caret % BYTES_PER_ROW + BYTES_PER_ROW - 1);
+        } else if (code == KeyCode.TAB) {
+            // Type into the other column.
+            ascii = !ascii;
+            lowNibble = false;
+            render();
+        } else if (shortCut && code == KeyCode.Z) {
+            undoEdit();
+        } else if (shortCut && code == KeyCode.S) {
+            save();
+        } else if (shortCut && code == KeyCode.G) {
+            goToOffset();
+        } else {
+            return;
+        }
+        keyEvent.consume();
+    }
+
+    // Overwrite the byte at the cursor with a typed hex digit or ASCII character.
+    private void type(char ch) {
+        if (caret >= size) {
+            return;
+        }
+        if (ascii) {
+            if (ch < 0x20 || ch > 0x7e) {
+                return;
+            }
+            overwrite(caret, (byte) ch);
+            moveTo(caret + 1);
+            return;
+        }
+        int digit = HEX_DIGITS.indexOf(Character.toLowerCase(ch));
+        if (digit < 0) {
+            return;
+        }
+        int old = byteAt(caret) & 0xff;
+        if (lowNibble) {
+            overwrite(caret, (byte) (old & 0xf0 | digit));
+            moveTo(caret + 1);
+        } else {
+            overwrite(caret, (byte) (digit << 4 | old & 0x0f));
+            lowNibble = true;
+            render();
+        }
+    }
+
+    private void overwrite(long pos, byte b) {
+        Byte previous = edits.put(pos, b);
+        undo.add(new long[] {pos, previous == null ? -1 : previous & 0xff});
+    }
+
+    private void undoEdit() {
+        if (undo.isEmpty()) {
+            return;
+        }
+        long[] entry = undo.remove(undo.size() - 1);
+        if (entry[1] < 0) {
+            edits.remove(entry[0]);
+        } else {
+            edits.put(entry[0], (byte) entry[1]);
+        }
+        caret = entry[0];
+        lowNibble = false;
+        reveal();
+    }
+
+    // Write every run of edited bytes at its position; the rest of the file is not touched.
+    private void save() {
+        if (edits.isEmpty()) {
+            return;
+        }
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ByteBuffer run = ByteBuffer.allocate(64 * 1024);
+            long runStart = -1;
+            for (Map.Entry<Long, Byte> edit : edits.entrySet()) {
+                long pos = edit.getKey();
+                if (runStart >= 0 && (pos != runStart + run.position() || !run.hasRemaining())) {
+                    write(out, run, runStart);
+                    runStart = -1;
+                }
+                if (runStart < 0) {
+                    runStart = pos;
+                }
+                run.put(edit.getValue());
+            }
+            write(out, run, runStart);
+            // The entries undo typed bytes kept aside; what is in the file now can't be undone.
+            edits.clear();
+            undo.clear();
+            System.out.println("Saved " + path);
+        } catch (IOException e) {
+            System.out.println(path + " can't be saved.");
+            System.out.println("Error message: " + e.getMessage());
+        }
+        render();
+    }
+
+    private static void write(FileChannel out, ByteBuffer run, long position) throws IOException {
+        run.flip();
+        while (run.hasRemaining()) {
+            position += out.write(run, position);
+        }
+        run.clear();
+    }
+
+    // Ask for an offset, in hex with 0x or in decimal, and move the cursor there.
+    private void goToOffset() {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Go to");
+        dialog.setHeaderText("Offsets 0 to " + Math.max(0, size - 1) + " (0x" + Long.toHexString(Math.max(0, size - 1)) + ")");
+        dialog.setContentText("Offset:");
+        Optional<String> answer = dialog.showAndWait();
+        if (!answer.isPresent()) {
+            return;
+        }
+        String target = answer.get().trim().toLowerCase();
+        try {
+            moveTo(target.startsWith("0x") ? Long.parseLong(target.substring(2), 16) : Long.parseLong(target));
+        } catch (NumberFormatException e) {
+            System.out.println("Can't go to " + target);
+        }
+    }
+
+    // The byte at pos as typed, or else as it is in the file.
+    private byte byteAt(long pos) {
+        Byte edited = edits.isEmpty() ? null : edits.get(pos);
+        if (edited != null) {
+            return edited;
+        }
+        int index = (int) (pos >>> SEGMENT_BITS);
+        MappedByteBuffer segment = segments[index];
+        if (segment == null) {
+            long start = (long) index << SEGMENT_BITS;
+            try {
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_BITS, size - start));
+            } catch (IOException e) {
+                System.out.println("Can't map " + path + " at " + start + "; exception was: " + e);
+                return 0;
+            }
+            segments[index] = segment;
+        }
+        return segment.get((int) (pos & ((1L << SEGMENT_BITS) - 1)));
+    }
+
+    private void moveTo(long pos) {
+        caret = Math.max(0, Math.min(Math.max(0, size - 1), pos));
+        lowNibble = false;
+        reveal();
+    }
+
+    // Scroll so that the row of the cursor is in the window.
+    private void reveal() {
+        long row = caret / BYTES_PER_ROW;
+        long visible = Math.max(1, height / lineHeight);
+        if (row < top) {
+            top = row;
+        } else if (row >= top + visible) {
+            top = row - visible + 1;
+        }
+        render();
+    }
+
+    private void scrollBy(int rows) {
+        top += rows;
+        render();
+    }
+
+    private void moveCaret(double x, double y) {
+        long row = top + (long) (y / lineHeight);
+        int column = (int) (x - WrapLayout.LEFT_MARGIN) / Math.max(1, charWidth);
+        int i = -1;
+        boolean inAscii = column >= asciiColumn(0);
+        for (int k = 0; k < BYTES_PER_ROW; k += 1) {
+            int start = inAscii ? asciiColumn(k) : hexColumn(k);
+            if (column >= start - (inAscii ? 0 : 1)) {
+                i = k;
+            }
+        }
+        if (i >= 0) {
+            ascii = inAscii;
+            moveTo(row * BYTES_PER_ROW + i);
+        }
+    }
+
+    // Columns of the row text: the offset, two spaces, the hex bytes in two groups of eight, the ASCII.
+    private int hexColumn(int i) {
+        return offsetDigits + 2 + 3 * i + (i >= 8 ? 1 : 0);
+    }
+
+    private int asciiColumn(int i) {
+        return offsetDigits + 2 + 3 * BYTES_PER_ROW + 2 + i;
+    }
+
+    private String rowText(long row) {
+        long start = row * BYTES_PER_ROW;
+        int count = (int) Math.min(BYTES_PER_ROW, size - start);
+        char[] s = new char[asciiColumn(count)];
+        Arrays.fill(s, ' ');
+        for (int d = 0; d < offsetDigits; d += 1) {
+            s[offsetDigits - 1 - d] = HEX_DIGITS.charAt((int) (start >>> (4 * d)) & 0xf);
+        }
+        for (int i = 0; i < count; i += 1) {
+            int b = byteAt(start + i) & 0xff;
+            s[hexColumn(i)] = HEX_DIGITS.charAt(b >>> 4);
+            s[hexColumn(i) + 1] = HEX_DIGITS.charAt(b & 0xf);
+            s[asciiColumn(i)] = b >= 0x20 && b <= 0x7e ? (char) b : '.';
+        }
+        return new String(s);
+    }
+
+    // Fill a Text node for every row in the window, marking the typed bytes and the cursor.
+    private void render() {
+        if (lineHeight == 0 || height == 0) {
+            return;
+        }
+        long rowCount = (size + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+        int visible = height / lineHeight + 1;
+        top = Math.max(0, Math.min(top, rowCount - visible + 1));
+        int used = 0;
+        usedMarks = 0;
+        for (long row = top; row < Math.min(rowCount, top + visible); row += 1) {
+            if (used == texts.getChildren().size()) {
+                Text t = new Text();
+                t.setTextOrigin(VPos.TOP);
+                texts.getChildren().add(t);
+            }
+            Text t = (Text) texts.getChildren().get(used);
+            int y = (int) (row - top) * lineHeight;
+            if (t.getFont() != font) {
+                t.setFont(font);
+            }
+            t.setText(rowText(row));
+            t.setX(WrapLayout.LEFT_MARGIN);
+            t.setY(y);
+            t.setVisible(true);
+            used += 1;
+            long start = row * BYTES_PER_ROW;
+            // Only the edits inside this row are looked at.
+            for (long pos : edits.subMap(start, start + BYTES_PER_ROW).keySet()) {
+                int i = (int) (pos - start);
+                mark(hexColumn(i), 2, y);
+                mark(asciiColumn(i), 1, y);
+            }
+        }
+        for (int i = used; i < texts.getChildren().size(); i += 1) {
+            texts.getChildren().get(i).setVisible(false);
+        }
+        for (int i = usedMarks; i < marks.getChildren().size(); i += 1) {
+            marks.getChildren().get(i).setVisible(false);
+        }
+
+        long caretRow = caret / BYTES_PER_ROW;
+        boolean shown = size > 0 && caretRow >= top && caretRow < top + visible;
+        c.setVisible(shown);
+        echo.setVisible(shown);
+        if (shown) {
+            int i = (int) (caret % BYTES_PER_ROW);
+            int y = (int) (caretRow - top) * lineHeight;
+            int column = ascii ? asciiColumn(i) : hexColumn(i) + (lowNibble ? 1 : 0);
+            c.setX(WrapLayout.LEFT_MARGIN + column * charWidth);
+            c.setY(y);
+            // The same byte in the other column is shaded.
+            echo.setX(WrapLayout.LEFT_MARGIN + (ascii ? hexColumn(i) : asciiColumn(i)) * charWidth);
+            echo.setY(y);
+            echo.setWidth((ascii ? 2 : 1) * charWidth);
+        }
+    }
+
+    private void mark(int column, int chars, int y) {
+        if (usedMarks == marks.getChildren().size()) {
+            Rectangle box = new Rectangle(0, 0, 0, 0);
+            box.setFill(EDITED);
+            marks.getChildren().add(box);
+        }
+        Rectangle box = (Rectangle) marks.getChildren().get(usedMarks);
+        usedMarks += 1;
+        box.setX(WrapLayout.LEFT_MARGIN + column * charWidth);
+        box.setY(y);
+        box.setWidth(chars * charWidth);
+        box.setHeight(lineHeight);
+        box.setVisible(true);
+    }
+}
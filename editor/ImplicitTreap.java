@@ -0,0 +1,216 @@
+package editor;
+
+import java.util.Random;
+
+/**
+ * A sequence of values, each with a weight, kept in an implicit treap: the k-th value, the sum of
+ * the weights before it and the value holding a given weight are all found in O(log n), and so are
+ * inserting and removing values anywhere. LineIndex weighs lines by their length, VisualLineIndex
+ * by their rows.
+ */
+public class ImplicitTreap<V> {
+    private Node<V> root;
+    private Random random;
+
+    private static class Node<V> {
+        V value;
+        int weight;
+        int total;
+        int count;
+        int priority;
+        Node<V> left, right;
+
+        Node(V value, int weight, int priority) {
+            this.value = value;
+            this.weight = weight;
+            this.priority = priority;
+            update(this);
+        }
+    }
+
+    public ImplicitTreap() {
+        random = new Random();
+    }
+
+    public int size() {
+        return count(root);
+    }
+
+    public int totalWeight() {
+        return total(root);
+    }
+
+    /** Remove every value. */
+    public void clear() {
+        root = null;
+    }
+
+    /** Return the value at k, or null if there is none. */
+    public V get(int k) {
+        Node<V> n = nodeAt(k);
+        return n == null ? null : n.value;
+    }
+
+    /** Return the weight of the value at k, or 0 if there is none. */
+    public int weight(int k) {
+        Node<V> n = nodeAt(k);
+        return n == null ? 0 : n.weight;
+    }
+
+    public void set(int k, V value, int weight) {
+        root = set(root, k, value, weight);
+    }
+
+    /** Give every value from from to to the same value and weight, in one pass over just those. */
+    public void fill(int from, int to, V value, int weight) {
+        Node<V>[] parts = split(root, from);
+        Node<V>[] rest = split(parts[1], to - from + 1);
+        fill(rest[0], value, weight);
+        root = merge(merge(parts[0], rest[0]), rest[1]);
+    }
+
+    public void append(V value, int weight) {
+        root = merge(root, new Node<>(value, weight, random.nextInt()));
+    }
+
+    public void insert(int k, V value, int weight) {
+        Node<V>[] parts = split(root, k);
+        root = merge(merge(parts[0], new Node<>(value, weight, random.nextInt())), parts[1]);
+    }
+
+    public void remove(int k) {
+        Node<V>[] parts = split(root, k);
+        Node<V>[] rest = split(parts[1], 1);
+        root = merge(parts[0], rest[1]);
+    }
+
+    /** Return the index of the value whose weight covers w, 0 <= w < totalWeight(); values of weight 0 never do. */
+    public int indexOfWeight(int w) {
+        Node<V> n = root;
+        int k = 0;
+        while (true) {
+            int leftTotal = total(n.left);
+            if (w < leftTotal) {
+                n = n.left;
+            } else if (w < leftTotal + n.weight) {
+                return k + count(n.left);
+            } else {
+                w -= leftTotal + n.weight;
+                k += count(n.left) + 1;
+                n = n.right;
+            }
+        }
+    }
+
+    /** Return the sum of the weights of the first k values. */
+    public int weightBefore(int k) {
+        Node<V> n = root;
+        int w = 0;
+        while (n != null) {
+            int leftCount = count(n.left);
+            if (k < leftCount) {
+                n = n.left;
+            } else if (k == leftCount) {
+                return w + total(n.left);
+            } else {
+                w += total(n.left) + n.weight;
+                k -= leftCount + 1;
+                n = n.right;
+            }
+        }
+        return w;
+    }
+
+    private Node<V> nodeAt(int k) {
+        Node<V> n = root;
+        while (n != null) {
+            int leftCount = count(n.left);
+            if (k < leftCount) {
+                n = n.left;
+            } else if (k == leftCount) {
+                return n;
+            } else {
+                k -= leftCount + 1;
+                n = n.right;
+            }
+        }
+        return null;
+    }
+
+    private Node<V> set(Node<V> n, int k, V value, int weight) {
+        int leftCount = count(n.left);
+        if (k < leftCount) {
+            n.left = set(n.left, k, value, weight);
+        } else if (k == leftCount) {
+            n.value = value;
+            n.weight = weight;
+        } else {
+            n.right = set(n.right, k - leftCount - 1, value, weight);
+        }
+        update(n);
+        return n;
+    }
+
+    private void fill(Node<V> n, V value, int weight) {
+        if (n == null) {
+            return;
+        }
+        n.value = value;
+        n.weight = weight;
+        fill(n.left, value, weight);
+        fill(n.right, value, weight);
+        update(n);
+    }
+
+    // Split into the first k values and the rest.
+    private Node<V>[] split(Node<V> n, int k) {
+        if (n == null) {
+            return pair(null, null);
+        }
+        if (count(n.left) >= k) {
+            Node<V>[] parts = split(n.left, k);
+            n.left = parts[1];
+            update(n);
+            return pair(parts[0], n);
+        }
+        Node<V>[] parts = split(n.right, k - count(n.left) - 1);
+        n.right = parts[0];
+        update(n);
+        return pair(n, parts[1]);
+    }
+
+    private Node<V> merge(Node<V> a, Node<V> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] pair(Node<V> a, Node<V> b) {
+        return new Node[] {a, b};
+    }
+
+    private static <V> void update(Node<V> n) {
+        n.total = total(n.left) + n.weight + total(n.right);
+        n.count = count(n.left) + 1 + count(n.right);
+    }
+
+    private static <V> int total(Node<V> n) {
+        return n == null ? 0 : n.total;
+    }
+
+    private static <V> int count(Node<V> n) {
+        return n == null ? 0 : n.count;
+    }
+}
@@ -0,0 +1,169 @@
+package editor;
+
+import javafx.event.EventHandler;
+import javafx.event.EventType;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Records the key and mouse events that reach the editor's handlers, for InputReplay.
+ *
+ * The file starts with a magic number and a version. Every event is then one kind byte,
+ * the microseconds since the previous event as a variable-length number, a modifier byte,
+ * and for key events the key code and character, for mouse events x, y and the click count.
+ * A key code is written by name the first time and by its index in that list afterwards.
+ */
+public class InputRecorder {
+    static final int MAGIC = 0x45445243;
+    static final int VERSION = 1;
+
+    static final int KEY_TYPED = 0;
+    static final int KEY_PRESSED = 1;
+    static final int KEY_RELEASED = 2;
+    static final int MOUSE_PRESSED = 3;
+    static final int MOUSE_DRAGGED = 4;
+    static final int MOUSE_RELEASED = 5;
+
+    static final int SHIFT = 1;
+    static final int CONTROL = 2;
+    static final int ALT = 4;
+    static final int META = 8;
+
+    private DataOutputStream out;
+    private HashMap<KeyCode, Integer> codes;
+    private long last;
+
+    public InputRecorder(Path path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        codes = new HashMap<>();
+        last = System.nanoTime();
+    }
+
+    /** Return a handler that records every key event before passing it on to handler. */
+    public EventHandler<KeyEvent> keys(EventHandler<KeyEvent> handler) {
+        return keyEvent -> {
+            record(keyEvent);
+            handler.handle(keyEvent);
+        };
+    }
+
+    /** Return a handler that records every mouse event before passing it on to handler. */
+    public EventHandler<MouseEvent> mouse(EventHandler<MouseEvent> handler) {
+        return mouseEvent -> {
+            record(mouseEvent);
+            handler.handle(mouseEvent);
+        };
+    }
+
+    public void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.out.println("Error when recording; exception was: " + e);
+        }
+        out = null;
+    }
+
+    private void record(KeyEvent keyEvent) {
+        EventType<KeyEvent> type = keyEvent.getEventType();
+        int kind = type == KeyEvent.KEY_TYPED ? KEY_TYPED : type == KeyEvent.KEY_PRESSED ? KEY_PRESSED : KEY_RELEASED;
+        int modifiers = modifiers(keyEvent.isShiftDown(), keyEvent.isControlDown(), keyEvent.isAltDown(), keyEvent.isMetaDown());
+        if (!writeHeader(kind, modifiers)) {
+            return;
+        }
+        try {
+            Integer index = codes.get(keyEvent.getCode());
+            if (index == null) {
+                writeVarLong(out, codes.size());
+                out.writeUTF(keyEvent.getCode().name());
+                codes.put(keyEvent.getCode(), codes.size());
+            } else {
+                writeVarLong(out, index);
+            }
+            out.writeUTF(keyEvent.getCharacter());
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private void record(MouseEvent mouseEvent) {
+        EventType<? extends MouseEvent> type = mouseEvent.getEventType();
+        int kind = type == MouseEvent.MOUSE_PRESSED ? MOUSE_PRESSED
+                : type == MouseEvent.MOUSE_DRAGGED ? MOUSE_DRAGGED : MOUSE_RELEASED;
+        int modifiers = modifiers(mouseEvent.isShiftDown(), mouseEvent.isControlDown(),
+                mouseEvent.isAltDown(), mouseEvent.isMetaDown());
+        if (!writeHeader(kind, modifiers)) {
+            return;
+        }
+        try {
+            out.writeFloat((float) mouseEvent.getX());
+            out.writeFloat((float) mouseEvent.getY());
+            out.writeByte(mouseEvent.getClickCount());
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    private boolean writeHeader(int kind, int modifiers) {
+        if (out == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        try {
+            out.writeByte(kind);
+            writeVarLong(out, (now - last) / 1000);
+            out.writeByte(modifiers);
+        } catch (IOException e) {
+            failed(e);
+            return false;
+        }
+        last = now;
+        return true;
+    }
+
+    // Stop recording instead of failing the edit that is being recorded.
+    private void failed(IOException e) {
+        System.out.println("Error when recording, recording stopped; exception was: " + e);
+        close();
+    }
+
+    private static int modifiers(boolean shift, boolean control, boolean alt, boolean meta) {
+        return (shift ? SHIFT : 0) | (control ? CONTROL : 0) | (alt ? ALT : 0) | (meta ? META : 0);
+    }
+
+    // Seven bits per byte, the high bit set on every byte but the last.
+    static void writeVarLong(DataOutput out, long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            out.writeByte((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            v |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
+    }
+}
@@ -0,0 +1,203 @@
+package editor;
+
+import javafx.application.Platform;
+import javafx.event.EventHandler;
+import javafx.scene.input.InputEvent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Feeds a file written by InputRecorder back into the editor's handlers, one event per
+ * application pulse, as fast as they are handled rather than at the recorded pace.
+ * Prints how long each kind of event took to handle, the checksum of the final text and the
+ * total time, and writes the latency of every single event to a CSV file next to the recording.
+ * Commands that open a dialog are skipped, since nobody is there to answer it.
+ */
+public class InputReplay {
+    private static final String[] KIND_NAMES =
+            {"key typed", "key pressed", "key released", "mouse pressed", "mouse dragged", "mouse released"};
+
+    private Path recording;
+    private ArrayList<InputEvent> events;
+    private int[] kinds;
+    private long[] recordedMicros;
+    private long[] latencies;
+
+    private EventHandler<KeyEvent> keys;
+    private EventHandler<MouseEvent> mouse;
+    private TextBuffer text;
+    private Runnable done;
+    private int next;
+    private long start;
+
+    public InputReplay(Path recording) throws IOException {
+        this.recording = recording;
+        events = new ArrayList<>();
+        ArrayList<Integer> kindList = new ArrayList<>();
+        ArrayList<Long> timeList = new ArrayList<>();
+        ArrayList<KeyCode> codes = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(recording)))) {
+            if (in.readInt() != InputRecorder.MAGIC || in.readUnsignedByte() != InputRecorder.VERSION) {
+                throw new IOException(recording + " is not an input recording");
+            }
+            long time = 0;
+            while (true) {
+                int kind;
+                try {
+                    kind = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                time += InputRecorder.readVarLong(in);
+                int modifiers = in.readUnsignedByte();
+                boolean shift = (modifiers & InputRecorder.SHIFT) != 0;
+                boolean control = (modifiers & InputRecorder.CONTROL) != 0;
+                boolean alt = (modifiers & InputRecorder.ALT) != 0;
+                boolean meta = (modifiers & InputRecorder.META) != 0;
+                if (kind <= InputRecorder.KEY_RELEASED) {
+                    int index = (int) InputRecorder.readVarLong(in);
+                    if (index == codes.size()) {
+                        codes.add(KeyCode.valueOf(in.readUTF()));
+                    }
+                    KeyCode code = codes.get(index);
+                    String character = in.readUTF();
+                    events.add(new KeyEvent(kind == InputRecorder.KEY_TYPED ? KeyEvent.KEY_TYPED
+                            : kind == InputRecorder.KEY_PRESSED ? KeyEvent.KEY_PRESSED : KeyEvent.KEY_RELEASED,
+                            character, "", code, shift, control, alt, meta));
+                } else {
+                    double x = in.readFloat();
+                    double y = in.readFloat();
+                    int clickCount = in.readUnsignedByte();
+                    events.add(new MouseEvent(kind == InputRecorder.MOUSE_PRESSED ? MouseEvent.MOUSE_PRESSED
+                            : kind == InputRecorder.MOUSE_DRAGGED ? MouseEvent.MOUSE_DRAGGED : MouseEvent.MOUSE_RELEASED,
+                            x, y, x, y, MouseButton.PRIMARY, clickCount, shift, control, alt, meta,
+                            kind != InputRecorder.MOUSE_RELEASED, false, false, false, false, false, null));
+                }
+                kindList.add(kind);
+                timeList.add(time);
+            }
+        }
+        kinds = new int[events.size()];
+        recordedMicros = new long[events.size()];
+        for (int i = 0; i < kinds.length; i += 1) {
+            kinds[i] = kindList.get(i);
+            recordedMicros[i] = timeList.get(i);
+        }
+    }
+
+    /** Replay every event into keys and mouse, report on text when finished and then run done. */
+    public void run(EventHandler<KeyEvent> keys, EventHandler<MouseEvent> mouse, TextBuffer text, Runnable done) {
+        this.keys = keys;
+        this.mouse = mouse;
+        this.text = text;
+        this.done = done;
+        latencies = new long[events.size()];
+        next = 0;
+        start = System.nanoTime();
+        Platform.runLater(this::replayNext);
+    }
+
+    // Handle one event, then let the application render before the next one.
+    private void replayNext() {
+        if (next == events.size()) {
+            report(System.nanoTime() - start);
+            done.run();
+            return;
+        }
+        InputEvent event = events.get(next);
+        if (!opensDialog(event)) {
+            long t = System.nanoTime();
+            if (event instanceof KeyEvent) {
+                keys.handle((KeyEvent) event);
+            } else {
+                mouse.handle((MouseEvent) event);
+            }
+            latencies[next] = System.nanoTime() - t;
+        }
+        next += 1;
+        Platform.runLater(this::replayNext);
+    }
+
+    // Ctrl+G asks for a line and Ctrl+Shift+D for a file to diff against; either would wait for an answer.
+    private static boolean opensDialog(InputEvent event) {
+        if (!(event instanceof KeyEvent) || !((KeyEvent) event).isShortcutDown()) {
+            return false;
+        }
+        KeyEvent key = (KeyEvent) event;
+        return key.getCode() == KeyCode.G || key.getCode() == KeyCode.D && key.isShiftDown();
+    }
+
+    private void report(long totalNanos) {
+        System.out.println("Replayed " + events.size() + " events from " + recording
+                + " in " + String.format("%.1f ms", totalNanos / 1e6));
+        for (int kind = 0; kind < KIND_NAMES.length; kind += 1) {
+            long[] times = latenciesOf(kind);
+            if (times.length == 0) {
+                continue;
+            }
+            Arrays.sort(times);
+            long sum = 0;
+            for (long t : times) {
+                sum += t;
+            }
+            System.out.println(String.format("%-15s %6d events, mean %8.1f us, p50 %8.1f us, p99 %8.1f us, max %8.1f us",
+                    KIND_NAMES[kind], times.length, sum / 1e3 / times.length, times[times.length / 2] / 1e3,
+                    times[Math.min(times.length - 1, (int) (times.length * 0.99))] / 1e3, times[times.length - 1] / 1e3));
+        }
+        System.out.println(String.format("Checksum of the text: %016x (%d characters)", checksum(), text.size()));
+
+        Path csv = Paths.get(recording + ".latency.csv");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(csv))) {
+            writer.println("event,kind,recorded_ms,latency_us");
+            for (int i = 0; i < latencies.length; i += 1) {
+                writer.println(i + "," + KIND_NAMES[kinds[i]] + "," + recordedMicros[i] / 1000 + ","
+                        + latencies[i] / 1000);
+            }
+            System.out.println("Latency of every event written to " + csv);
+        } catch (IOException e) {
+            System.out.println("Error when writing " + csv + "; exception was: " + e);
+        }
+    }
+
+    private long[] latenciesOf(int kind) {
+        int count = 0;
+        for (int k : kinds) {
+            if (k == kind) {
+                count += 1;
+            }
+        }
+        long[] times = new long[count];
+        count = 0;
+        for (int i = 0; i < kinds.length; i += 1) {
+            if (kinds[i] == kind) {
+                times[count] = latencies[i];
+                count += 1;
+            }
+        }
+        return times;
+    }
+
+    // 64-bit FNV-1a over the characters of the text.
+    private long checksum() {
+        TextStore store = text.getTextStore();
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < store.length(); i += 1) {
+            h ^= store.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -4,12 +4,14 @@ import javafx.event.EventHandler;
 import javafx.scene.Group;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.text.Text;
 
 import java.util.Iterator;
+import java.util.Optional;
 import java.util.Stack;
-import java.io.File;
-import java.io.FileWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.io.IOException;
 
 /** An EventHandler to handle keys that get pressed. */
@@ -18,54 +20,113 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
     private TextBuffer text;
     private Render render;
     private String fileName;
+    private ViewManager views;
+    private FileWatcher watcher;
+    private Runnable onSave;
+    // A followed file is only ever changed by the program writing it.
+    private boolean readOnly;
 
     private Stack<Action> undo;
     private Stack<Action> redo;
+    // Undo entries older than the last 100, and the ones from earlier sessions.
+    private UndoHistory history;
+    private MultiCursor cursors;
+    // The other files open in tabs, or null if there is just the one.
+    private Documents documents;
+    // The list of words completing the one at the cursor, or null without one.
+    private Completion completion;
 
-    public KeyEventHandler(final Group root, TextBuffer text, Render render, String fileName) {
+    // Characters typed together with the shortcut key that belong to a command, not to the text.
+    private static final String SHORTCUT_CHARACTERS = "=-zysp\\wmgtdkj[]o\t i";
+
+    public KeyEventHandler(final Group root, TextBuffer text, Render render, ViewManager views, FileWatcher watcher,
+                           MultiCursor cursors, String fileName) {
         this.root = root;
         this.text = text;
         this.render = render;
+        this.views = views;
+        this.watcher = watcher;
+        this.cursors = cursors;
         this.fileName = fileName;
         undo = new Stack<>();
         redo = new Stack<>();
+        history = new UndoHistory(Paths.get(fileName));
+        render.getMemory().setUndo(undo, redo, history);
+    }
+
+    /** Return true if this KEY_TYPED event should insert its character into the text. */
+    public static boolean isTextInput(KeyEvent keyEvent) {
+        String characterTyped = keyEvent.getCharacter();
+        return characterTyped.length() > 0 && characterTyped.charAt(0) != 8 && characterTyped.charAt(0) != 13
+                && !(keyEvent.isShortcutDown() && SHORTCUT_CHARACTERS.indexOf(characterTyped.charAt(0)) >= 0);
     }
 
     @Override
     public void handle(KeyEvent keyEvent) {
         boolean shortCut = keyEvent.isShortcutDown();
-        if (keyEvent.getEventType() == KeyEvent.KEY_TYPED) {
-            String characterTyped = keyEvent.getCharacter();
-            if (characterTyped.length() > 0 && characterTyped.charAt(0) != 8 && characterTyped.charAt(0) != 13
-                    && !(shortCut && characterTyped.equals("=")) && !(shortCut && characterTyped.equals("-"))
-                    && !(shortCut && characterTyped.equals("z")) && !(shortCut && characterTyped.equals("y"))
-                    && !(shortCut && characterTyped.equals("s")) && !(shortCut && characterTyped.equals("p"))) {
-                text.add(new Text(characterTyped));
-                // All new Nodes need to be added to the root in order to be displayed.
-                root.getChildren().add(text.getCurrentPos(), text.getCurrentNode().text);
-                text.moveRight();
-
-                // The undo stack size is 100, so we can undo up to 100 actions.
-                // If we reach the limit of size, then we need to remove the first one and leave one space for the new one.
-                if (undo.size() == 100) {
-                    undo.remove(0);
+        DiffView diff = views.getDiff();
+        if (diff != null) {
+            // The diff view takes its own keys, the rest edit the buffer behind it as usual.
+            if (diff.handle(keyEvent)) {
+                return;
+            }
+            if (shortCut && keyEvent.getCode() == KeyCode.D) {
+                // Only the press toggles; the release of the press that opened the view must not close it.
+                if (keyEvent.getEventType() == KeyEvent.KEY_PRESSED) {
+                    views.closeDiff();
                 }
-                undo.push(new Action(true, text.getCurrentPos(), text.getCurrentNode(), text.getCurrentNode().prev.text));
-                redo.clear();
+                return;
+            }
+            handleEdit(keyEvent, shortCut);
+            diff.revealCaret();
+            return;
+        }
+        handleEdit(keyEvent, shortCut);
+        if (completion != null && keyEvent.getEventType() != KeyEvent.KEY_RELEASED) {
+            // The list follows what is typed in front of the cursor.
+            completion.update();
+        }
+    }
 
-                render.renderAll();
+    private void handleEdit(KeyEvent keyEvent, boolean shortCut) {
+        // Plain editing keys go to the split view that has focus; shortcuts always act on the shared buffer.
+        SplitView focused = views.getFocused();
+        if (focused != null && !shortCut) {
+            focused.handle(keyEvent, this);
+            return;
+        }
+        if (!shortCut && cursors.isActive() && handleCursors(keyEvent)) {
+            return;
+        }
+        if (!shortCut && completion != null && completion.isShowing() && handleCompletion(keyEvent)) {
+            return;
+        }
+        if (!shortCut && keyEvent.getEventType() == KeyEvent.KEY_PRESSED) {
+            // Any plain key press ends a mouse selection.
+            render.clearSelection();
+        }
+        if (keyEvent.getEventType() == KeyEvent.KEY_TYPED) {
+            if (isTextInput(keyEvent) && !readOnly) {
+                int pos = text.getCurrentPos();
+                insertCharacter(keyEvent.getCharacter());
+                render.renderEdit(pos);
                 keyEvent.consume();
             }
         } else if (keyEvent.getEventType() == KeyEvent.KEY_PRESSED) {
             KeyCode code = keyEvent.getCode();
             if (code == KeyCode.LEFT) {
                 text.moveLeft();
+                render.stepOverFold(false);
                 render.renderCursor();
                 render.renderScrollBar();
             } else if (code == KeyCode.RIGHT) {
                 text.moveRight();
+                render.stepOverFold(true);
                 render.renderCursor();
                 render.renderScrollBar();
+            } else if ((code == KeyCode.UP || code == KeyCode.DOWN) && !render.getFolds().isEmpty()) {
+                // Folded lines have stale positions, so move by the rows of the layout instead.
+                render.moveRow(code == KeyCode.UP ? -1 : 1);
             } else if (code == KeyCode.UP) {
                 Iterator<Text> curTextIterator = text.descendingIterator(text.getCurrentPos());
                 if (curTextIterator.hasNext()) {
@@ -178,76 +239,99 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
                 render.renderCursor();
                 render.renderScrollBar();
             } else if (code == KeyCode.BACK_SPACE) {
-                if (text.size() > 0 && text.getCurrentPos() > 0) {
-                    Text removeChar = text.remove();
-                    root.getChildren().remove(removeChar);
-
-                    if (undo.size() == 100) {
-                        undo.remove(0);
-                    }
-                    undo.push(new Action(false, text.getCurrentPos(), text.getCurrentNode(), removeChar));
-                    redo.clear();
-
-                    render.renderAll();
+                if (!readOnly && text.size() > 0 && text.getCurrentPos() > 0) {
+                    deleteCharacter();
+                    render.renderEdit(text.getCurrentPos());
                 }
-            } else if (code == KeyCode.ENTER) {
-                text.add(new Text(System.getProperty("line.separator")));
-                root.getChildren().add(text.getCurrentPos(), text.getCurrentNode().text);
-                text.moveRight();
-
-                if (undo.size() == 100) {
-                    undo.remove(0);
-                }
-                undo.push(new Action(true, text.getCurrentPos(), text.getCurrentNode(), text.getCurrentNode().prev.text));
-                redo.clear();
-
-                render.renderAll();
+            } else if (code == KeyCode.ENTER && !readOnly) {
+                int pos = text.getCurrentPos();
+                insertCharacter(TextBuffer.NEWLINE);
+                render.renderEdit(pos);
             } else if (shortCut && code == KeyCode.EQUALS) {
-                render.updateFont(render.getFontSize() + 4);
-                render.renderAll();
+                views.updateFont(render.getFontSize() + 4);
             } else if (shortCut && code == KeyCode.MINUS) {
-                render.updateFont(Math.max(4, render.getFontSize() - 4));
-                render.renderAll();
-            } else if (shortCut && code == KeyCode.Z) {
-                // Undo
+                views.updateFont(Math.max(4, render.getFontSize() - 4));
+            } else if (shortCut && code == KeyCode.Z && !readOnly) {
+                // Undo; a read-only file may still have a history saved with it, which must not edit it.
+                Action action = null;
                 if (!undo.isEmpty()) {
-                    Action action = undo.pop();
+                    action = undo.pop();
+                    history.undone(undo.size());
+                } else {
+                    // Older entries come from the history saved with the file.
+                    action = history.pop();
+                }
+                if (action != null && action.isBatch()) {
+                    Action inverse = action.inverse();
+                    cursors.apply(inverse);
+                    push(redo, inverse);
+                } else if (action != null) {
                     if (action.getAction()) {
                         removeBack(action, redo);
                     } else {
                         addBack(action, redo);
                     }
-                    render.renderAll();
+                    render.renderEdit(Math.max(0, text.getCurrentPos() - 1));
                 }
-            } else if (shortCut && code == KeyCode.Y) {
+            } else if (shortCut && code == KeyCode.Y && !readOnly) {
                 // Redo
-                if (!redo.isEmpty()) {
+                if (!redo.isEmpty() && redo.peek().isBatch()) {
+                    Action inverse = redo.pop().inverse();
+                    cursors.apply(inverse);
+                    push(undo, inverse);
+                } else if (!redo.isEmpty()) {
                     Action action = redo.pop();
                     if (action.getAction()) {
                         removeBack(action, undo);
                     } else {
                         addBack(action, undo);
                     }
-                    render.renderAll();
+                    render.renderEdit(Math.max(0, text.getCurrentPos() - 1));
+                }
+            } else if (shortCut && code == KeyCode.BACK_SLASH) {
+                // Split the window side by side, or stacked when shift is held.
+                views.split(!keyEvent.isShiftDown());
+            } else if (shortCut && code == KeyCode.W) {
+                // With no split view in focus, close the tab instead.
+                if (views.getFocused() == null && documents != null) {
+                    documents.closeActive();
+                } else {
+                    views.closeFocused();
                 }
+            } else if (shortCut && code == KeyCode.TAB && documents != null) {
+                documents.next(keyEvent.isShiftDown() ? -1 : 1);
+            } else if (shortCut && code == KeyCode.O && documents != null) {
+                openTab();
+            } else if (shortCut && code == KeyCode.M) {
+                render.toggleMinimap();
+            } else if (shortCut && code == KeyCode.T) {
+                render.toggleTiles();
+            } else if (shortCut && code == KeyCode.K) {
+                render.toggleSpelling();
+            } else if (shortCut && code == KeyCode.J) {
+                cursors.addNextOccurrence();
+            } else if (shortCut && code == KeyCode.OPEN_BRACKET) {
+                render.toggleFold();
+            } else if (shortCut && code == KeyCode.CLOSE_BRACKET) {
+                render.unfoldAll();
+            } else if (shortCut && code == KeyCode.SPACE && completion != null) {
+                completion.show();
+            } else if (shortCut && code == KeyCode.G) {
+                goToLine();
+            } else if (shortCut && code == KeyCode.D) {
+                openDiff(keyEvent.isShiftDown());
+            } else if (shortCut && code == KeyCode.I) {
+                System.out.println(render.getMemory().report());
             } else if (shortCut && code == KeyCode.P) {
                 System.out.println("Cursor Position: " + (int) render.getCursor().getX() + ", " + (int) render.getCursor().getY());
-            } else if (shortCut && code == KeyCode.S) {
+            } else if (shortCut && code == KeyCode.S && !readOnly) {
                 try {
-                    File inputFile = new File(fileName);
-                    FileWriter writer = new FileWriter(inputFile);
-                    Iterator<Text> curTextIterator = text.iterator();
-                    Text t = curTextIterator.next();
-                    char c;
-                    int i = 0;
-                    int size = text.size();
-                    while (i < size) {
-                        c = t.getText().charAt(0);
-                        writer.write(c);
-                        t = curTextIterator.next();
-                        i += 1;
+                    FileIO.write(Paths.get(fileName), Charset.defaultCharset(), text.getTextStore());
+                    watcher.markSaved();
+                    history.save(undo, text.getTextStore());
+                    if (onSave != null) {
+                        onSave.run();
                     }
-                    writer.close();
                 } catch (IOException e) {
                     System.out.println(fileName + " can't be saved.");
                     System.out.println("Error message: " + e.getMessage());
@@ -257,26 +341,276 @@ public class KeyEventHandler implements EventHandler<KeyEvent> {
         }
     }
 
-    public void removeBack(Action action, Stack<Action> stack) {
-        text.setCurrentNode(action.getNode());
-        text.setCurrentPos(action.getPosition());
+    // Keys that act on every cursor while there are several; return false for keys handled as usual.
+    private boolean handleCursors(KeyEvent keyEvent) {
+        if (keyEvent.getEventType() == KeyEvent.KEY_TYPED) {
+            if (isTextInput(keyEvent) && !readOnly) {
+                record(cursors.type(keyEvent.getCharacter()));
+            }
+            keyEvent.consume();
+            return true;
+        }
+        if (keyEvent.getEventType() != KeyEvent.KEY_PRESSED) {
+            return false;
+        }
+        KeyCode code = keyEvent.getCode();
+        if (code == KeyCode.BACK_SPACE) {
+            if (!readOnly) {
+                record(cursors.backspace());
+            }
+        } else if (code == KeyCode.ENTER) {
+            if (!readOnly) {
+                record(cursors.type(TextBuffer.NEWLINE));
+            }
+        } else if (code == KeyCode.LEFT) {
+            cursors.move(-1);
+        } else if (code == KeyCode.RIGHT) {
+            cursors.move(1);
+        } else if (code == KeyCode.ESCAPE) {
+            cursors.clear();
+        } else {
+            if (code == KeyCode.UP || code == KeyCode.DOWN) {
+                // Moving between lines goes back to the primary cursor alone.
+                cursors.clear();
+            }
+            return false;
+        }
+        keyEvent.consume();
+        return true;
+    }
+
+    // Keys that pick from the completion list while it is open; return false for the others.
+    private boolean handleCompletion(KeyEvent keyEvent) {
+        if (keyEvent.getEventType() != KeyEvent.KEY_PRESSED) {
+            return false;
+        }
+        KeyCode code = keyEvent.getCode();
+        if (code == KeyCode.UP || code == KeyCode.DOWN) {
+            completion.move(code == KeyCode.UP ? -1 : 1);
+        } else if (code == KeyCode.ENTER) {
+            String rest = completion.accept();
+            if (!readOnly) {
+                // The rest of the word is typed one character at a time, like any other typing.
+                int pos = text.getCurrentPos();
+                for (int i = 0; i < rest.length(); i += 1) {
+                    insertCharacter(String.valueOf(rest.charAt(i)));
+                }
+                render.renderEdit(pos, text.getCurrentPos());
+            }
+        } else if (code == KeyCode.ESCAPE) {
+            completion.hide();
+        } else {
+            return false;
+        }
+        keyEvent.consume();
+        return true;
+    }
+
+    // One undo entry for an edit made at every cursor.
+    private void record(Action batch) {
+        if (batch != null) {
+            pushUndo(batch);
+            redo.clear();
+        }
+    }
+
+    // Ask for a line, line:column or @offset and move the cursor there.
+    private void goToLine() {
+        LineIndex lines = text.getLineIndex();
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Go to");
+        dialog.setHeaderText("Lines 1 to " + lines.lineCount() + ", offsets 0 to " + text.size());
+        dialog.setContentText("Line, line:column or @offset:");
+        Optional<String> answer = dialog.showAndWait();
+        if (!answer.isPresent()) {
+            return;
+        }
+        String target = answer.get().trim();
+        int pos;
+        try {
+            if (target.startsWith("@")) {
+                pos = Integer.parseInt(target.substring(1).trim());
+            } else {
+                String[] parts = target.split(":");
+                int line = Math.max(0, Math.min(lines.lineCount() - 1, Integer.parseInt(parts[0].trim()) - 1));
+                int column = parts.length > 1 ? Integer.parseInt(parts[1].trim()) - 1 : 0;
+                // Stay in front of the line break when the column is past the end of the line.
+                int lastColumn = line < lines.lineCount() - 1 ? lines.lineLength(line) - 1 : lines.lineLength(line);
+                pos = lines.lineStart(line) + Math.max(0, Math.min(lastColumn, column));
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Can't go to " + target);
+            return;
+        }
+        render.goTo(Math.max(0, Math.min(text.size(), pos)));
+    }
+
+    // Ask for a file and open it in a new tab in front.
+    private void openTab() {
+        TextInputDialog dialog = new TextInputDialog();
+        dialog.setTitle("Open");
+        dialog.setHeaderText("Open a file in a new tab");
+        dialog.setContentText("File:");
+        Optional<String> answer = dialog.showAndWait();
+        if (answer.isPresent() && !answer.get().trim().isEmpty()) {
+            documents.show(documents.open(answer.get().trim()));
+        }
+    }
+
+    // Compare the buffer with the saved file, or with a file asked for when other is true.
+    private void openDiff(boolean other) {
+        String target = fileName;
+        if (other) {
+            TextInputDialog dialog = new TextInputDialog(fileName);
+            dialog.setTitle("Compare");
+            dialog.setHeaderText("Compare the text with another file");
+            dialog.setContentText("File:");
+            Optional<String> answer = dialog.showAndWait();
+            if (!answer.isPresent()) {
+                return;
+            }
+            target = answer.get().trim();
+        }
+        try {
+            views.openDiff(Paths.get(target));
+        } catch (IOException e) {
+            System.out.println("Can't compare with " + target + "; exception was: " + e);
+        }
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /** Run r after the buffer was written to the file. */
+    public void setOnSave(Runnable r) {
+        onSave = r;
+    }
+
+    /** Keep the undo history in history, which may hold entries from an earlier session. */
+    public void setHistory(UndoHistory history) {
+        this.history = history;
+        render.getMemory().setUndo(undo, redo, history);
+    }
+
+    /** Edit fileName from now on, with its own undo and redo stacks and saved history. */
+    public void setFile(String fileName, Stack<Action> undo, Stack<Action> redo, UndoHistory history) {
+        this.fileName = fileName;
+        this.undo = undo;
+        this.redo = redo;
+        this.history = history;
+        render.getMemory().setUndo(undo, redo, history);
+    }
+
+    /** Switch and close tabs through documents. */
+    public void setDocuments(Documents documents) {
+        this.documents = documents;
+    }
+
+    /** Offer completions of the word at the cursor with Ctrl+Space. */
+    public void setCompletion(Completion completion) {
+        this.completion = completion;
+    }
+
+    /** Forget undo and redo, their positions no longer match text that was replaced from outside. */
+    public void clearHistory() {
+        undo.clear();
+        redo.clear();
+        history.clear();
+    }
+
+    /** Insert s at pos on behalf of another view; the primary cursor keeps its place in the text. */
+    public void insertAt(int pos, String s) {
+        if (readOnly) {
+            return;
+        }
+        TextBuffer.Node primaryNode = text.getCurrentNode();
+        int primaryPos = text.getCurrentPos();
+        text.moveTo(pos);
+        insertCharacter(s);
+        text.setCurrentNode(primaryNode);
+        text.setCurrentPos(pos < primaryPos ? primaryPos + 1 : primaryPos);
+        if (pos == primaryPos) {
+            // The new node was inserted in front of the primary cursor node, step back onto it.
+            text.setCurrentNode(primaryNode.prev);
+        }
+        render.renderEdit(pos);
+    }
+
+    /** Remove the character at pos on behalf of another view; the primary cursor keeps its place in the text. */
+    public void removeAt(int pos) {
+        if (readOnly) {
+            return;
+        }
+        TextBuffer.Node primaryNode = text.getCurrentNode();
+        int primaryPos = text.getCurrentPos();
+        text.moveTo(pos + 1);
+        if (text.getCurrentNode().prev == primaryNode) {
+            primaryNode = primaryNode.next;
+        }
+        deleteCharacter();
+        text.setCurrentNode(primaryNode);
+        text.setCurrentPos(pos < primaryPos ? primaryPos - 1 : primaryPos);
+        render.renderEdit(pos);
+    }
+
+    // Insert s at the current position and record it in the undo history.
+    private void insertCharacter(String s) {
+        text.add(new Text(s));
+        // All new Nodes need to be added to the root in order to be displayed.
+        // Folded text is not in the root, so there may be fewer children than characters.
+        root.getChildren().add(Math.min(text.getCurrentPos(), root.getChildren().size()), text.getCurrentNode().text);
+        text.moveRight();
+
+        pushUndo(new Action(true, text.getCurrentPos(), text.getCurrentNode().prev.text));
+        redo.clear();
+    }
+
+    // Remove the character before the current position and record it in the undo history.
+    private void deleteCharacter() {
         Text removeChar = text.remove();
         root.getChildren().remove(removeChar);
-        if (stack.size() == 100) {
-            stack.remove(0);
+
+        pushUndo(new Action(false, text.getCurrentPos(), removeChar));
+        redo.clear();
+    }
+
+    // The undo stack keeps 100 actions in memory; older ones move to the history, which can save them.
+    private void pushUndo(Action action) {
+        if (undo.size() == 100) {
+            history.push(undo.remove(0));
         }
-        stack.push(new Action(false, text.getCurrentPos(), text.getCurrentNode(), removeChar));
+        undo.push(action);
+    }
+
+    public void removeBack(Action action, Stack<Action> stack) {
+        moveTo(action);
+        Text removeChar = text.remove();
+        root.getChildren().remove(removeChar);
+        push(stack, new Action(false, text.getCurrentPos(), removeChar));
     }
 
     public void addBack(Action action, Stack<Action> stack) {
-        text.setCurrentNode(action.getNode());
-        text.setCurrentPos(action.getPosition());
+        moveTo(action);
         text.add(action.getText());
-        root.getChildren().add(action.getPosition(), action.getText());
+        root.getChildren().add(Math.min(action.getPosition(), root.getChildren().size()), action.getText());
         text.moveRight();
+        push(stack, new Action(true, text.getCurrentPos(), text.getCurrentNode().prev.text));
+    }
+
+    // Go by position only: switching tabs and batch edits build new nodes.
+    private void moveTo(Action action) {
+        text.moveTo(action.getPosition());
+    }
+
+    private void push(Stack<Action> stack, Action action) {
+        if (stack == undo) {
+            pushUndo(action);
+            return;
+        }
         if (stack.size() == 100) {
             stack.remove(0);
         }
-        stack.push(new Action(true, text.getCurrentPos(), text.getCurrentNode(), text.getCurrentNode().prev.text));
+        stack.push(action);
     }
 }
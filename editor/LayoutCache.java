@@ -0,0 +1,194 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Wrap points of a file saved on disk, so reopening it with the same font and width skips wrapping.
+ * There is one entry per file in the cache directory. It is only used while the buffer is exactly
+ * what was last loaded or saved, and only if the file's size, modification time and content hash
+ * as well as the font and width still match.
+ *
+ * An entry is a 56 byte header followed by big-endian ints that can be mapped and read in place:
+ * the start offset of every line plus the total length, the index of every line's first wrap
+ * point plus the total count, and then all wrap points.
+ */
+public class LayoutCache implements BufferListener {
+    private static final int MAGIC = 0x454c4159;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 56;
+
+    // Entries are written in the background, one at a time.
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "layout-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private TextBuffer text;
+    private Path path;
+    private Path entry;
+
+    // What the file looked like when the buffer last matched it.
+    private boolean synced;
+    private long size;
+    private long modified;
+    private long contentHash;
+
+    public LayoutCache(TextBuffer text, Path path) {
+        this.text = text;
+        setPath(path);
+        text.addListener(this);
+    }
+
+    /** Cache the wrap points of the file at path from now on; it is out of sync until synced is called. */
+    public void setPath(Path path) {
+        this.path = path.toAbsolutePath();
+        Path directory = Paths.get(System.getProperty("editor.cacheDir",
+                System.getProperty("user.home") + "/.cache/text-editor"));
+        entry = directory.resolve(Long.toHexString(hash(this.path.toString())) + ".layout");
+        synced = false;
+    }
+
+    /** The buffer was just loaded from or saved to the file. */
+    public void synced() {
+        try {
+            size = Files.size(path);
+            modified = Files.getLastModifiedTime(path).toMillis();
+            contentHash = hash(text.getTextStore());
+            synced = true;
+        } catch (IOException e) {
+            synced = false;
+        }
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        synced = false;
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        synced = false;
+    }
+
+    /** Fill breaks with the cached wrap points for this font and width and return true, if there are any. */
+    public boolean load(String fontName, int fontSize, int width, int[][] breaks) {
+        if (!synced || !Files.exists(entry)) {
+            return false;
+        }
+        LineIndex lines = text.getLineIndex();
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt() != MAGIC || map.getInt() != VERSION || map.getLong() != size
+                    || map.getLong() != modified || map.getLong() != contentHash
+                    || map.getLong() != hash(fontName) || map.getInt() != fontSize || map.getInt() != width) {
+                return false;
+            }
+            int lineCount = map.getInt();
+            int breakCount = map.getInt();
+            if (lineCount != breaks.length
+                    || channel.size() != HEADER_SIZE + 4L * (2 * (lineCount + 1) + breakCount)) {
+                return false;
+            }
+            IntBuffer ints = map.asIntBuffer();
+            int breakBase = 2 * (lineCount + 1);
+            int[][] loaded = new int[lineCount][];
+            for (int line = 0; line < lineCount; line += 1) {
+                // The lines must have the same lengths, in case two different texts share a hash.
+                if (ints.get(line + 1) - ints.get(line) != lines.lineLength(line)) {
+                    return false;
+                }
+                int first = ints.get(lineCount + 1 + line);
+                int[] lineBreaks = new int[ints.get(lineCount + 2 + line) - first];
+                for (int i = 0; i < lineBreaks.length; i += 1) {
+                    lineBreaks[i] = ints.get(breakBase + first + i);
+                }
+                loaded[line] = lineBreaks;
+            }
+            System.arraycopy(loaded, 0, breaks, 0, lineCount);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // A damaged entry is just a miss, it gets written again.
+            return false;
+        }
+    }
+
+    /** Remember the wrap points for this font and width, if the buffer matches the file. */
+    public void save(String fontName, int fontSize, int width, int[][] breaks) {
+        if (!synced) {
+            return;
+        }
+        LineIndex lines = text.getLineIndex();
+        int lineCount = breaks.length;
+        int[] starts = new int[lineCount + 1];
+        for (int line = 0; line < lineCount; line += 1) {
+            starts[line + 1] = starts[line] + lines.lineLength(line);
+        }
+        long fileSize = size;
+        long fileModified = modified;
+        long fileHash = contentHash;
+        // The wrap point arrays are never changed once made, so the writer can read them later.
+        writer.execute(() -> write(fileSize, fileModified, fileHash, fontName, fontSize, width, starts, breaks));
+    }
+
+    private void write(long fileSize, long fileModified, long fileHash, String fontName, int fontSize, int width,
+                       int[] starts, int[][] breaks) {
+        int lineCount = breaks.length;
+        int breakCount = 0;
+        for (int[] lineBreaks : breaks) {
+            breakCount += lineBreaks.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * (2 * (lineCount + 1) + breakCount));
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(fileSize).putLong(fileModified).putLong(fileHash);
+        buffer.putLong(hash(fontName)).putInt(fontSize).putInt(width).putInt(lineCount).putInt(breakCount);
+        for (int start : starts) {
+            buffer.putInt(start);
+        }
+        int first = 0;
+        for (int[] lineBreaks : breaks) {
+            buffer.putInt(first);
+            first += lineBreaks.length;
+        }
+        buffer.putInt(first);
+        for (int[] lineBreaks : breaks) {
+            for (int b : lineBreaks) {
+                buffer.putInt(b);
+            }
+        }
+        buffer.flip();
+        try {
+            Files.createDirectories(entry.getParent());
+            // Write next to the entry and move it in place, so a reader never sees half of it.
+            Path temp = Files.createTempFile(entry.getParent(), "layout", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Can't write the layout cache; exception was: " + e);
+        }
+    }
+
+    // 64-bit FNV-1a over the characters of s.
+    private static long hash(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i += 1) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
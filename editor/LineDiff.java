@@ -0,0 +1,124 @@
+package editor;
+
+import java.util.Arrays;
+
+/**
+ * Myers' O((N+M)D) difference algorithm in linear space: the middle snake of the shortest edit
+ * script is found by searching from both ends at once, and the halves on either side of it are
+ * solved recursively. Elements are compared as longs, which are line hashes for a line diff
+ * and plain characters for refining one changed line.
+ */
+public class LineDiff {
+    private long[] a;
+    private long[] b;
+    private int[] match;
+    private int[] forward;
+    private int[] backward;
+
+    private LineDiff(long[] a, long[] b) {
+        this.a = a;
+        this.b = b;
+        match = new int[a.length];
+        Arrays.fill(match, -1);
+        int size = 2 * (a.length + b.length) + 4;
+        forward = new int[size];
+        backward = new int[size];
+    }
+
+    /** Return, for every element of a, the index of the element of b it is matched with, or -1. */
+    public static int[] match(long[] a, long[] b) {
+        LineDiff diff = new LineDiff(a, b);
+        diff.diff(0, a.length, 0, b.length);
+        return diff.match;
+    }
+
+    /** Return the characters of s as longs, for refining a changed line with match. */
+    public static long[] chars(CharSequence s) {
+        long[] result = new long[s.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = s.charAt(i);
+        }
+        return result;
+    }
+
+    private void diff(int aLo, int aHi, int bLo, int bHi) {
+        // Equal heads and tails are matched without searching.
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            match[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            match[aHi - 1] = bHi - 1;
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        diff(aLo, snake[0], bLo, snake[1]);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            match[x] = y;
+        }
+        diff(snake[2], aHi, snake[3], bHi);
+    }
+
+    // Return {x, y, u, v}: the middle snake runs diagonally from (x, y) to (u, v).
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        // Diagonal k is stored at k + offset; backward diagonals count from the end of both ranges.
+        int offset = max + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+
+        for (int d = 0; d <= max; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int reverse = delta - k;
+                if (odd && reverse >= -(d - 1) && reverse <= d - 1 && x + backward[offset + reverse] >= n) {
+                    return new int[] {aLo + startX, bLo + startY, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                int front = delta - k;
+                if (!odd && front >= -d && front <= d && x + forward[offset + front] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - startX, bHi - startY};
+                }
+            }
+        }
+        // Not reached: the two searches always meet by d = max.
+        return new int[] {aLo, bLo, aLo, bLo};
+    }
+}
@@ -0,0 +1,92 @@
+package editor;
+
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+
+/**
+ * Line numbers left of the text. Only the lines inside the window get a number,
+ * and the Text nodes for them are reused as the window scrolls.
+ */
+public class LineGutter {
+    private static final int PADDING = 6;
+
+    private LineIndex lines;
+    private Render render;
+    private GlyphCache glyphs;
+
+    private Group gutterRoot;
+    private Rectangle background;
+    private ArrayList<Text> numbers;
+
+    public LineGutter(TextBuffer text, Render render, GlyphCache glyphs) {
+        this.lines = text.getLineIndex();
+        this.render = render;
+        this.glyphs = glyphs;
+        numbers = new ArrayList<>();
+        background = new Rectangle(0, 0, 0, 0);
+        background.setFill(Color.rgb(244, 244, 244));
+        gutterRoot = new Group(background);
+        gutterRoot.setMouseTransparent(true);
+    }
+
+    public Group getRoot() {
+        return gutterRoot;
+    }
+
+    /** Return how wide the gutter has to be for the current number of lines, at least two digits. */
+    public int width(Font font) {
+        int digits = Math.max(2, Integer.toString(lines.lineCount()).length());
+        return digits * glyphs.width('0', font) + 2 * PADDING;
+    }
+
+    /** Number the lines that are inside the window; the number of a folded header is blue. */
+    public void refresh() {
+        Font font = render.getFont();
+        int width = width(font);
+        int height = render.getWindowHeight();
+        background.setWidth(width);
+        background.setHeight(height);
+
+        int top = render.getTopLine();
+        int bottom = Math.min(render.getBottomLine() + 1, lines.lineCount() - 1);
+        double scroll = render.getScrollY();
+        FoldIndex folds = render.getFolds();
+        int used = 0;
+        for (int line = top; line <= bottom; line = folds.lastHidden(line) + 1) {
+            if (used == numbers.size()) {
+                Text number = new Text();
+                number.setTextOrigin(VPos.TOP);
+                number.setFill(Color.GRAY);
+                numbers.add(number);
+                gutterRoot.getChildren().add(number);
+            }
+            Text number = numbers.get(used);
+            used += 1;
+            String label = Integer.toString(line + 1);
+            if (!label.equals(number.getText())) {
+                number.setText(label);
+            }
+            if (number.getFont() != font) {
+                number.setFont(font);
+            }
+            number.setFill(folds.foldAt(line) != null ? Color.STEELBLUE : Color.GRAY);
+            // Right-align the number against the text.
+            int labelWidth = 0;
+            for (int i = 0; i < label.length(); i += 1) {
+                labelWidth += glyphs.width(label.charAt(i), font);
+            }
+            number.setX(width - PADDING - labelWidth);
+            number.setY(render.getLineY(line) - scroll);
+            number.setVisible(true);
+        }
+        for (int i = used; i < numbers.size(); i += 1) {
+            numbers.get(i).setVisible(false);
+        }
+    }
+}
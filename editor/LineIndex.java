@@ -0,0 +1,87 @@
+package editor;
+
+/**
+ * The length of every logical line, kept in an implicit treap so that
+ * offset/line lookups and single character edits are all O(log n).
+ * A line's length includes its trailing line break; the last line has none.
+ */
+public class LineIndex {
+    // Only the weights are kept: a line's weight is its length.
+    private ImplicitTreap<Void> lines;
+
+    public LineIndex() {
+        lines = new ImplicitTreap<>();
+        lines.append(null, 0);
+    }
+
+    public int lineCount() {
+        return lines.size();
+    }
+
+    public int length() {
+        return lines.totalWeight();
+    }
+
+    /** Return the line holding offset; the end of the document belongs to the last line. */
+    public int lineOfOffset(int offset) {
+        if (offset >= lines.totalWeight()) {
+            return lines.size() - 1;
+        }
+        return lines.indexOfWeight(offset);
+    }
+
+    /** Return the offset of the first character in line. */
+    public int lineStart(int line) {
+        return lines.weightBefore(line);
+    }
+
+    /** Return the length of line, including its line break. */
+    public int lineLength(int line) {
+        return lines.weight(line);
+    }
+
+    public void insert(int offset, char c) {
+        int line = lineOfOffset(offset);
+        if (c != '\n') {
+            lines.set(line, null, lineLength(line) + 1);
+            return;
+        }
+        // Split the line: the break ends the first half and the rest becomes a new line.
+        int before = offset - lineStart(line);
+        int length = lineLength(line);
+        lines.set(line, null, before + 1);
+        lines.insert(line + 1, null, length - before);
+    }
+
+    public void insert(int offset, CharSequence s) {
+        for (int i = 0; i < s.length(); i += 1) {
+            insert(offset + i, s.charAt(i));
+        }
+    }
+
+    public void remove(int offset, char c) {
+        int line = lineOfOffset(offset);
+        if (c != '\n') {
+            lines.set(line, null, lineLength(line) - 1);
+            return;
+        }
+        // Removing a line break joins the line with the next one.
+        int joined = lineLength(line) - 1 + lineLength(line + 1);
+        lines.set(line, null, joined);
+        lines.remove(line + 1);
+    }
+
+    /** Rebuild the index from scratch for the given content. */
+    public void reset(CharSequence s) {
+        lines.clear();
+        int lineLength = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            lineLength += 1;
+            if (s.charAt(i) == '\n') {
+                lines.append(null, lineLength);
+                lineLength = 0;
+            }
+        }
+        lines.append(null, lineLength);
+    }
+}
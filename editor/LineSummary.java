@@ -0,0 +1,102 @@
+package editor;
+
+/**
+ * A compact summary of every logical line for the minimap: indentation, extent and ink density,
+ * each clamped to a byte and packed into one int. The ints sit in a gap buffer, so adding or
+ * removing lines near the last edit does not move the rest of the document.
+ */
+public class LineSummary {
+    private int[] buf;
+    private int gapStart;
+    private int gapEnd;
+
+    public LineSummary() {
+        buf = new int[64];
+        gapStart = 0;
+        gapEnd = buf.length;
+        insertLine(0, 0);
+    }
+
+    public int size() {
+        return buf.length - (gapEnd - gapStart);
+    }
+
+    public int get(int line) {
+        return line < gapStart ? buf[line] : buf[line + gapEnd - gapStart];
+    }
+
+    public void set(int line, int summary) {
+        if (line < gapStart) {
+            buf[line] = summary;
+        } else {
+            buf[line + gapEnd - gapStart] = summary;
+        }
+    }
+
+    public void insertLine(int line, int summary) {
+        moveGap(line);
+        if (gapStart == gapEnd) {
+            int tail = buf.length - gapEnd;
+            int[] newBuf = new int[buf.length * 2];
+            System.arraycopy(buf, 0, newBuf, 0, gapStart);
+            System.arraycopy(buf, gapEnd, newBuf, newBuf.length - tail, tail);
+            gapEnd = newBuf.length - tail;
+            buf = newBuf;
+        }
+        buf[gapStart] = summary;
+        gapStart += 1;
+    }
+
+    public void removeLine(int line) {
+        moveGap(line);
+        gapEnd += 1;
+    }
+
+    /** Summarize the characters [start, start + length) of the store. */
+    public static int summarize(TextStore store, int start, int length) {
+        // Everything past the clamp is off the minimap, so very long lines cost no more than short ones.
+        length = Math.min(length, 256);
+        int indent = 0;
+        while (indent < length && (store.charAt(start + indent) == ' ' || store.charAt(start + indent) == '\t')) {
+            indent += 1;
+        }
+        int extent = length;
+        while (extent > indent && Character.isWhitespace(store.charAt(start + extent - 1))) {
+            extent -= 1;
+        }
+        int ink = 0;
+        for (int i = indent; i < extent; i += 1) {
+            if (!Character.isWhitespace(store.charAt(start + i))) {
+                ink += 1;
+            }
+        }
+        int density = extent > indent ? ink * 255 / (extent - indent) : 0;
+        return Math.min(indent, 255) << 16 | Math.min(extent, 255) << 8 | density;
+    }
+
+    public static int indent(int summary) {
+        return summary >>> 16 & 0xff;
+    }
+
+    public static int extent(int summary) {
+        return summary >>> 8 & 0xff;
+    }
+
+    public static int density(int summary) {
+        return summary & 0xff;
+    }
+
+    private void moveGap(int pos) {
+        if (pos < gapStart) {
+            int n = gapStart - pos;
+            System.arraycopy(buf, pos, buf, gapEnd - n, n);
+            gapStart -= n;
+            gapEnd -= n;
+        } else if (pos > gapStart) {
+            int n = pos - gapStart;
+            System.arraycopy(buf, gapEnd, buf, gapStart, n);
+            gapStart += n;
+            gapEnd += n;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package editor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How much heap the document in front takes, by subsystem.
+ *
+ * The sizes are estimates from counts every subsystem keeps anyway, so they cost nothing to take.
+ * By far the largest part is the buffer node and the Text node of every character, with its
+ * position, font and the peer the scene makes to draw it; the per-node sizes are rough figures for
+ * a 64-bit JVM, not measurements.
+ */
+public class MemoryUsage {
+    // Rough sizes on a 64-bit JVM with compressed references.
+    private static final long BUFFER_NODE_BYTES = 24;
+    private static final long TEXT_BYTES = 1024;
+    private static final long LINE_BYTES = 40 + 40 + 64 + 2 * 4;
+    private static final long ACTION_BYTES = 32;
+    private static final long GLYPH_PAGE_BYTES = 16 + 256 * 4;
+    // An undone or redone character holds a small Text node of its own, outside the scene.
+    private static final long ACTION_TEXT_BYTES = 320;
+
+    private TextBuffer text;
+    private VisualLineIndex visualLines;
+    private GlyphCache glyphs;
+    private TileCache tiles;
+
+    private List<Action> undo;
+    private List<Action> redo;
+    private UndoHistory history;
+
+    public MemoryUsage(TextBuffer text, VisualLineIndex visualLines, GlyphCache glyphs, TileCache tiles) {
+        this.text = text;
+        this.visualLines = visualLines;
+        this.glyphs = glyphs;
+        this.tiles = tiles;
+        undo = new ArrayList<>();
+        redo = new ArrayList<>();
+    }
+
+    /** Count the undo and redo entries of the document in front from now on. */
+    public void setUndo(List<Action> undo, List<Action> redo, UndoHistory history) {
+        this.undo = undo;
+        this.redo = redo;
+        this.history = history;
+    }
+
+    public long textStorage() {
+        return 2L * text.getTextStore().capacity();
+    }
+
+    /** The logical lines, their wrapped layouts and the per-line summaries of the minimap and folds. */
+    public long lineIndex() {
+        return LINE_BYTES * text.getLineIndex().lineCount() + 4L * text.size() + 8L * visualLines.rowCount();
+    }
+
+    public long undoHistory() {
+        long bytes = 0;
+        for (Action action : undo) {
+            bytes += sizeOf(action);
+        }
+        for (Action action : redo) {
+            bytes += sizeOf(action);
+        }
+        // Older entries hold one character each when they are not a batch.
+        return bytes + (history == null ? 0 : (ACTION_BYTES + ACTION_TEXT_BYTES) * history.loadedEntries());
+    }
+
+    /** The buffer's nodes and their Text nodes. */
+    public long sceneNodes() {
+        return (BUFFER_NODE_BYTES + TEXT_BYTES) * text.size();
+    }
+
+    public long caches() {
+        return GLYPH_PAGE_BYTES * glyphs.pageCount() + tiles.getBytesUsed();
+    }
+
+    public long total() {
+        return textStorage() + lineIndex() + undoHistory() + sceneNodes() + caches();
+    }
+
+    /** One line per subsystem, in megabytes. */
+    public String report() {
+        return String.format("Memory of %d characters, %d lines, estimated:%n"
+                        + "  text storage  %8.2f MB%n  line index    %8.2f MB%n  undo history  %8.2f MB%n"
+                        + "  scene nodes   %8.2f MB%n  caches        %8.2f MB%n  total         %8.2f MB",
+                text.size(), text.getLineIndex().lineCount(), mb(textStorage()), mb(lineIndex()), mb(undoHistory()),
+                mb(sceneNodes()), mb(caches()), mb(total()));
+    }
+
+    private static long sizeOf(Action action) {
+        if (!action.isBatch()) {
+            return ACTION_BYTES + ACTION_TEXT_BYTES;
+        }
+        long bytes = ACTION_BYTES + 4L * action.getOffsets().length;
+        for (int k = 0; k < action.getOffsets().length; k += 1) {
+            // Two strings, each a header and two bytes a character.
+            bytes += 2 * 40 + 2L * (action.getRemoved()[k].length() + action.getInserted()[k].length());
+        }
+        return bytes;
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
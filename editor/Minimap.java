@@ -0,0 +1,188 @@
+package editor;
+
+import javafx.scene.Group;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+
+import java.util.Arrays;
+
+/**
+ * A downsampled overview of the document drawn next to the scroll bar.
+ * Each logical line is a short bar built from its LineSummary, painted into a cached image.
+ * An edit only recomputes the summary of the lines it touched and repaints their rows,
+ * so typing costs the same no matter how long the document is.
+ */
+public class Minimap implements BufferListener {
+    public static final int WIDTH = 80;
+    // Every logical line is drawn as a bar this many pixels high.
+    private static final int ROW_HEIGHT = 2;
+    private static final int CHARS_PER_PIXEL = 2;
+    private static final int BACKGROUND = 0xfff4f4f4;
+
+    private TextBuffer text;
+    private LineIndex lines;
+    private Render render;
+    private LineSummary summaries;
+
+    private Group minimapRoot;
+    private ImageView view;
+    private WritableImage image;
+    private Rectangle viewport;
+    private int[] rowPixels;
+    private int height;
+
+    // The first line drawn at the top of the minimap.
+    private int topLine;
+    // Lines whose summary is stale; the range is empty when dirtyFrom > dirtyTo.
+    private int dirtyFrom;
+    private int dirtyTo;
+    private boolean repaintAll;
+
+    public Minimap(TextBuffer text, Render render) {
+        this.text = text;
+        this.lines = text.getLineIndex();
+        this.render = render;
+        summaries = new LineSummary();
+        rowPixels = new int[WIDTH];
+        dirtyFrom = 0;
+        dirtyTo = -1;
+
+        view = new ImageView();
+        viewport = new Rectangle(0, 0, WIDTH, 0);
+        viewport.setFill(Color.rgb(0, 0, 0, 0.12));
+        viewport.setMouseTransparent(true);
+        minimapRoot = new Group(view, viewport);
+
+        // Click or drag on the minimap to move the window there.
+        minimapRoot.setOnMousePressed(mouseEvent -> {
+            render.scrollToLine(topLine + (int) mouseEvent.getY() / ROW_HEIGHT);
+            mouseEvent.consume();
+        });
+        minimapRoot.setOnMouseDragged(mouseEvent -> {
+            render.scrollToLine(topLine + (int) mouseEvent.getY() / ROW_HEIGHT);
+            mouseEvent.consume();
+        });
+        minimapRoot.setOnMouseReleased(mouseEvent -> mouseEvent.consume());
+        text.addListener(this);
+    }
+
+    public Group getRoot() {
+        return minimapRoot;
+    }
+
+    public void setBounds(int x, int height) {
+        minimapRoot.setLayoutX(x);
+        if (height != this.height && height > 0) {
+            this.height = height;
+            image = new WritableImage(WIDTH, height);
+            view.setImage(image);
+            repaintAll = true;
+        }
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        int added = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\n') {
+                summaries.insertLine(line + 1, 0);
+                added += 1;
+            }
+        }
+        if (dirtyTo > line) {
+            dirtyTo += added;
+        }
+        markDirty(line, line + added);
+        repaintAll |= added > 0;
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        int removed = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\n') {
+                summaries.removeLine(line + 1);
+                removed += 1;
+            }
+        }
+        if (dirtyTo > line) {
+            dirtyTo = Math.max(line, dirtyTo - removed);
+        }
+        markDirty(line, line);
+        repaintAll |= removed > 0;
+    }
+
+    /** Bring stale summaries up to date and repaint only the rows that changed. */
+    public void refresh() {
+        if (image == null || !minimapRoot.isVisible()) {
+            return;
+        }
+        int lineCount = lines.lineCount();
+        int paintFrom = dirtyFrom;
+        int paintTo = Math.min(dirtyTo, lineCount - 1);
+        if (paintFrom <= paintTo) {
+            TextStore store = text.getTextStore();
+            int start = lines.lineStart(paintFrom);
+            for (int line = paintFrom; line <= paintTo; line += 1) {
+                int length = lines.lineLength(line);
+                int content = line < lineCount - 1 ? length - 1 : length;
+                summaries.set(line, LineSummary.summarize(store, start, content));
+                start += length;
+            }
+        }
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+
+        // Scroll the minimap along with the window when the document does not fit.
+        int capacity = height / ROW_HEIGHT;
+        int top = render.getTopLine();
+        int bottom = render.getBottomLine();
+        int newTopLine = 0;
+        if (lineCount > capacity) {
+            int scrollable = Math.max(1, lineCount - (bottom - top + 1));
+            newTopLine = (int) ((long) (lineCount - capacity) * Math.min(top, scrollable) / scrollable);
+        }
+        if (newTopLine != topLine) {
+            topLine = newTopLine;
+            repaintAll = true;
+        }
+        if (repaintAll) {
+            paintFrom = topLine;
+            paintTo = topLine + capacity - 1;
+            repaintAll = false;
+        }
+        for (int line = Math.max(paintFrom, topLine); line <= Math.min(paintTo, topLine + capacity - 1); line += 1) {
+            paintLine(line, lineCount);
+        }
+
+        viewport.setY((top - topLine) * ROW_HEIGHT);
+        viewport.setHeight((bottom - top + 1) * ROW_HEIGHT);
+    }
+
+    private void markDirty(int from, int to) {
+        dirtyFrom = Math.min(dirtyFrom, from);
+        dirtyTo = Math.max(dirtyTo, to);
+    }
+
+    // Paint one line as a bar from its indentation to its last visible character, darker when denser.
+    private void paintLine(int line, int lineCount) {
+        Arrays.fill(rowPixels, BACKGROUND);
+        if (line < lineCount) {
+            int summary = summaries.get(line);
+            int from = Math.min(WIDTH, LineSummary.indent(summary) / CHARS_PER_PIXEL);
+            int to = Math.min(WIDTH, (LineSummary.extent(summary) + CHARS_PER_PIXEL - 1) / CHARS_PER_PIXEL);
+            int shade = 200 - LineSummary.density(summary) * 120 / 255;
+            int color = 0xff000000 | shade << 16 | shade << 8 | shade;
+            for (int x = from; x < to; x += 1) {
+                rowPixels[x] = color;
+            }
+        }
+        int y = (line - topLine) * ROW_HEIGHT;
+        for (int i = 0; i < ROW_HEIGHT && y + i < height; i += 1) {
+            image.getPixelWriter().setPixels(0, y + i, WIDTH, 1, PixelFormat.getIntArgbInstance(), rowPixels, 0, WIDTH);
+        }
+    }
+}
@@ -1,124 +1,138 @@
 package editor;
 
+import javafx.animation.AnimationTimer;
 import javafx.event.EventHandler;
 import javafx.scene.Group;
 import javafx.scene.input.MouseEvent;
-import javafx.scene.text.Text;
 
-/** An EventHandler to handle mouse that click. */
+/**
+ * An EventHandler to handle mouse presses and drags.
+ * A single press moves the cursor, a double press selects a word and a triple press selects a line.
+ */
 public class MouseEventHandler implements EventHandler<MouseEvent> {
     private Group root;
     private TextBuffer text;
     private Render render;
+    private ViewManager views;
+    private MultiCursor cursors;
 
-    public MouseEventHandler(final Group root, TextBuffer text, Render render) {
+    // Where a selection started.
+    private int anchor;
+    // An Alt+drag selects a column from where it was pressed.
+    private boolean column;
+    private double columnX;
+    private double columnY;
+
+    // Drag events arrive faster than frames, so only the latest one is applied on each pulse.
+    private AnimationTimer dragTimer;
+    private boolean dragPending;
+    private double dragX;
+    private double dragY;
+
+    public MouseEventHandler(final Group root, TextBuffer text, Render render, ViewManager views, MultiCursor cursors) {
         this.root = root;
         this.text = text;
         this.render = render;
+        this.views = views;
+        this.cursors = cursors;
+        dragTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                applyDrag();
+            }
+        };
     }
 
     @Override
     public void handle(MouseEvent mouseEvent) {
-        if (mouseEvent.getEventType() == MouseEvent.MOUSE_CLICKED) {
-            // Use current word position as the reference coordinate.
-            TextBuffer.Node curLineFirstNode;
-            if (text.getCurrentPos() == text.size()) {
-                curLineFirstNode = text.getLineNode((int) text.getCurrentNode().prev.text.getY());
-            } else {
-                curLineFirstNode = text.getLineNode((int) text.getCurrentNode().text.getY());
-            }
-
-            Text curLineFirstText = curLineFirstNode.text;
+        // Record current position in content coordinates.
+        double mousePressedX = mouseEvent.getX() - root.getLayoutX();
+        double mousePressedY = mouseEvent.getY() - root.getLayoutY();
 
-            // The current line bottom boundary
-            int curLineBBoundary;
-            if (curLineFirstText.getText().equals(System.getProperty("line.separator"))) {
-                curLineBBoundary = (int) (curLineFirstText.getY() + Math.round(render.getAutoHeight().getLayoutBounds().getHeight()));
+        if (mouseEvent.getEventType() == MouseEvent.MOUSE_PRESSED) {
+            // Split views consume their own presses, so this one belongs to the primary view.
+            views.focus(null);
+            column = mouseEvent.isAltDown();
+            if (column) {
+                // Alt+click adds a cursor and keeps the others; dragging on selects a column.
+                columnX = mousePressedX;
+                columnY = mousePressedY;
+                cursors.addCaret(render.positionAt(mousePressedX, mousePressedY));
+                dragTimer.start();
+                return;
+            }
+            cursors.clear();
+            int pos = render.placeCursor(mousePressedX, mousePressedY);
+            if (mouseEvent.getClickCount() == 2) {
+                selectWord(pos);
+            } else if (mouseEvent.getClickCount() >= 3) {
+                selectLine(pos);
+            } else if (mouseEvent.isShiftDown()) {
+                render.setSelection(anchor, pos);
             } else {
-                curLineBBoundary = (int) (curLineFirstText.getY() + Math.round(curLineFirstText.getLayoutBounds().getHeight()));
+                anchor = pos;
+                render.clearSelection();
             }
+            render.renderCursor();
+            render.renderScrollBar();
+            dragTimer.start();
+        } else if (mouseEvent.getEventType() == MouseEvent.MOUSE_DRAGGED) {
+            dragX = mousePressedX;
+            dragY = mousePressedY;
+            dragPending = true;
+        } else if (mouseEvent.getEventType() == MouseEvent.MOUSE_RELEASED) {
+            applyDrag();
+            dragTimer.stop();
+        }
+    }
 
-            // Record current position
-            int mousePressedX = (int) mouseEvent.getX();
-            int mousePressedY = (int) mouseEvent.getY() + (-1) * (int) root.getLayoutY();
+    private void applyDrag() {
+        if (!dragPending) {
+            return;
+        }
+        dragPending = false;
+        if (column) {
+            cursors.selectColumn(columnX, columnY, dragX, dragY);
+            return;
+        }
+        int pos = render.placeCursor(dragX, dragY);
+        render.setSelection(anchor, pos);
+        render.renderCursor();
+        render.renderScrollBar();
+    }
 
-            // Verify the mouse click event happened in the above or below the cursor line.
-            if (!(curLineFirstText.getY() < mousePressedY && mousePressedY < curLineBBoundary)) {
-                if (curLineFirstText.getY() > mousePressedY) {
-                    // mouse click event is above the current cursor line
-                    // Up search to the mouse click position
-                    while (curLineFirstText.getY() > mousePressedY) {
-                        if (curLineFirstText.getText().equals(System.getProperty("line.separator"))) {
-                            curLineBBoundary = (int) (curLineFirstText.getY() - Math.round(render.getAutoHeight().getLayoutBounds().getHeight()));
-                        } else {
-                            curLineBBoundary = (int) (curLineFirstText.getY() - Math.round(curLineFirstText.getLayoutBounds().getHeight()));
-                        }
-                        curLineFirstNode = text.getLineNode(curLineBBoundary);
-                        curLineFirstText = curLineFirstNode.text;
-                    }
-                } else {
-                    // mouse click event is below the current cursor line
-                    // Down search to the mouse click position
-                    while (curLineFirstText.getY() < mousePressedY && curLineBBoundary < mousePressedY && curLineFirstText.getY() < text.getLast().getY()) {
-                        curLineFirstNode = text.getLineNode(curLineBBoundary);
-                        curLineFirstText = curLineFirstNode.text;
-                        if (curLineFirstText.getText().equals(System.getProperty("line.separator"))) {
-                            curLineBBoundary = (int) (curLineFirstText.getY() + Math.round(render.getAutoHeight().getLayoutBounds().getHeight()));
-                        } else {
-                            curLineBBoundary = (int) (curLineFirstText.getY() + Math.round(curLineFirstText.getLayoutBounds().getHeight()));
-                        }
-                    }
-                }
+    // Select the run of word characters (or the single other character) around pos.
+    private void selectWord(int pos) {
+        TextStore store = text.getTextStore();
+        int start = pos;
+        int end = pos;
+        if (pos < store.length() && isWordChar(store.charAt(pos))) {
+            while (start > 0 && isWordChar(store.charAt(start - 1))) {
+                start -= 1;
             }
-
-            // Search from the beginning of each line.
-            TextBuffer.Node curLineNode = curLineFirstNode;
-            Text curLineText = curLineNode.text;
-            int curLinePos = text.getLinePos((int) curLineText.getY());
-
-            while (curLineText.getX() < mousePressedX  && curLineFirstText.getY() == curLineText.getY()) {
-                curLineNode = curLineNode.next;
-                curLineText = curLineNode.text;
-                curLinePos += 1;
+            while (end < store.length() && isWordChar(store.charAt(end))) {
+                end += 1;
             }
+        } else if (pos < store.length() && store.charAt(pos) != '\n') {
+            end = pos + 1;
+        }
+        anchor = start;
+        text.moveTo(end);
+        render.setSelection(start, end);
+    }
 
-            // Due to the above search might cause overhead in one turn, so need to check.
-            // And here we have two situation: in the same line, and otherwise (encounter c/r or end of file character).
-            if (curLineText.getY() == curLineFirstText.getY()) {
-                // If we are in the same line, then we need to check which text is close to the mouse click.
-                // Case: In the same line with two possible cases: normal case and edge case (e.g. at the bottom line)
-                if (mousePressedY > text.getLast().getY() + render.getAutoHeight().getLayoutBounds().getHeight()
-                        && text.getLast().getText().equals(System.getProperty("line.separator"))) {
-                    // In the bottom line and the last character is c/r,
-                    // the cursor should not move when the mousePressedX changed.
-                    curLineNode = text.getLastNode().next;
-                    curLinePos = text.size();
-                } else {
-                    if ((curLineText.getX() - mousePressedX) > (mousePressedX - curLineNode.prev.text.getX())) {
-                        curLineNode = curLineNode.prev;
-                        curLinePos -= 1;
-                    }
-                }
-            } else if (curLineText.getText().equals("")) {
-                // Case: '""' is the end of file character, its x, y position is (0, 0).
-                // If the last character is c/r and mousePressedY click at that line, then we need to turn back.
-                if (text.getLast().getText().equals(System.getProperty("line.separator"))) {
-                    if (curLineFirstText.getY() < mousePressedY && mousePressedY < curLineBBoundary) {
-                        curLineNode = curLineNode.prev;
-                        curLinePos -= 1;
-                    }
-                }
-            } else {
-                // Case: c/r
-                // If we traverse overhead (e.g. curLineText line is below curLineFirstText line), then we need to turn back.
-                curLineNode = curLineNode.prev;
-                curLinePos -= 1;
-            }
+    // Select the logical line holding pos, including its line break.
+    private void selectLine(int pos) {
+        LineIndex lines = text.getLineIndex();
+        int line = lines.lineOfOffset(pos);
+        int start = lines.lineStart(line);
+        int end = start + lines.lineLength(line);
+        anchor = start;
+        text.moveTo(end);
+        render.setSelection(start, end);
+    }
 
-            text.setCurrentNode(curLineNode);
-            text.setCurrentPos(curLinePos);
-            render.renderCursor();
-            render.renderScrollBar();
-        }
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
     }
 }
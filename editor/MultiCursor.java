@@ -0,0 +1,384 @@
+package editor;
+
+import javafx.scene.Group;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Several cursors that edit together: added with Alt+click, by selecting the next occurrence of
+ * a word, or by a column selection with Alt+drag.
+ * A key is applied to every cursor as one batch: the edits are made from the last cursor to the
+ * first so the offsets of the others stay put, the Text nodes are added to and removed from the
+ * scene in one step each, the whole batch is a single undo entry, and one relayout wraps only the
+ * paragraphs the edits touched.
+ */
+public class MultiCursor implements BufferListener {
+    private Group root;
+    private TextBuffer text;
+    private TextStore store;
+    private Render render;
+
+    // Every cursor, the primary one included, sorted by position and never overlapping.
+    private int[] anchors = new int[16];
+    private int[] carets = new int[16];
+    private int count;
+    // The cursor at the buffer's current position, and the one added last.
+    private int primary;
+    private int last;
+    private boolean active;
+    // Set while a batch is made, when the cursors are moved by apply instead of by the listener.
+    private boolean applying;
+
+    public MultiCursor(Group root, TextBuffer text, Render render) {
+        this.root = root;
+        this.text = text;
+        this.store = text.getTextStore();
+        this.render = render;
+        text.addListener(this);
+    }
+
+    /** Return true while keys go to the cursors here instead of only the buffer's current position. */
+    public boolean isActive() {
+        return active;
+    }
+
+    /** Add a cursor at pos, keeping the one at the buffer's current position. */
+    public void addCaret(int pos) {
+        if (!active) {
+            begin(text.getCurrentPos(), text.getCurrentPos());
+        }
+        last = insert(pos, pos);
+        show();
+    }
+
+    /**
+     * Select the word at the cursor, or the selection, the first time;
+     * after that add a cursor selecting the next occurrence of what the newest cursor selects.
+     */
+    public void addNextOccurrence() {
+        if (!active) {
+            int from = render.getSelectionStart();
+            int to = render.getSelectionEnd();
+            if (from >= to) {
+                from = text.getCurrentPos();
+                to = from;
+                while (from > 0 && isWordChar(store.charAt(from - 1))) {
+                    from -= 1;
+                }
+                while (to < store.length() && isWordChar(store.charAt(to))) {
+                    to += 1;
+                }
+            }
+            if (from < to) {
+                begin(from, to);
+                text.moveTo(to);
+                render.clearSelection();
+                render.renderCursor();
+                show();
+            }
+            return;
+        }
+        int from = start(last);
+        int to = end(last);
+        if (from == to) {
+            return;
+        }
+        String needle = store.substring(from, to);
+        int found = indexOf(needle, to);
+        if (found < 0) {
+            found = indexOf(needle, 0);
+        }
+        // Every occurrence has a cursor once the search comes back to one.
+        if (found < 0 || overlaps(found, found + needle.length())) {
+            return;
+        }
+        last = insert(found, found + needle.length());
+        render.scrollToLine(text.getLineIndex().lineOfOffset(found));
+        show();
+    }
+
+    /** Put a cursor on every row between y1 and y2, selecting from x1 to x2 on each, in content coordinates. */
+    public void selectColumn(double x1, double y1, double x2, double y2) {
+        int lineHeight = (int) Math.round(render.getAutoHeight().getLayoutBounds().getHeight());
+        int firstRow = (int) (Math.min(y1, y2) / lineHeight);
+        int lastRow = (int) (Math.max(y1, y2) / lineHeight);
+        active = true;
+        count = 0;
+        for (int row = firstRow; row <= lastRow; row += 1) {
+            double y = row * lineHeight + lineHeight / 2.0;
+            int anchor = render.positionAt(x1, y);
+            int caret = render.positionAt(x2, y);
+            if (count > 0 && Math.min(anchor, caret) <= end(count - 1)) {
+                // Past the last row, every row gives the same position.
+                continue;
+            }
+            ensureCapacity(count + 1);
+            anchors[count] = anchor;
+            carets[count] = caret;
+            count += 1;
+        }
+        // The primary cursor is on the row where the drag is.
+        primary = y2 < y1 ? 0 : count - 1;
+        last = primary;
+        render.clearSelection();
+        text.moveTo(carets[primary]);
+        render.renderCursor();
+        show();
+    }
+
+    /** Go back to the single cursor at the buffer's current position. */
+    public void clear() {
+        if (active) {
+            active = false;
+            count = 0;
+            render.setCursors(anchors, carets, 0);
+        }
+    }
+
+    /** Type s at every cursor, replacing what it selects, and return the batch for the undo history. */
+    public Action type(String s) {
+        // The buffer keeps a line separator as '\n', whatever NEWLINE is.
+        String chars = s.equals(TextBuffer.NEWLINE) ? "\n" : s;
+        int[] offsets = new int[count];
+        String[] removed = new String[count];
+        String[] inserted = new String[count];
+        for (int j = 0; j < count; j += 1) {
+            int i = count - 1 - j;
+            offsets[j] = start(i);
+            removed[j] = store.substring(start(i), end(i));
+            inserted[j] = chars;
+        }
+        Action batch = new Action(offsets, removed, inserted);
+        apply(batch);
+        return batch;
+    }
+
+    /** Delete the selection or the character before every cursor; return the batch, or null if nothing changed. */
+    public Action backspace() {
+        int[] offsets = new int[count];
+        String[] removed = new String[count];
+        String[] inserted = new String[count];
+        boolean changed = false;
+        for (int j = 0; j < count; j += 1) {
+            int i = count - 1 - j;
+            int from = start(i);
+            int to = end(i);
+            if (from == to && from > 0) {
+                from -= 1;
+            }
+            offsets[j] = from;
+            removed[j] = store.substring(from, to);
+            inserted[j] = "";
+            changed |= from < to;
+        }
+        if (!changed) {
+            return null;
+        }
+        Action batch = new Action(offsets, removed, inserted);
+        apply(batch);
+        return batch;
+    }
+
+    /** Move every cursor one character left (delta -1) or right (delta 1), ending its selection. */
+    public void move(int delta) {
+        for (int i = 0; i < count; i += 1) {
+            int caret;
+            if (anchors[i] != carets[i]) {
+                caret = delta < 0 ? start(i) : end(i);
+            } else {
+                caret = Math.max(0, Math.min(text.size(), carets[i] + delta));
+            }
+            anchors[i] = caret;
+            carets[i] = caret;
+        }
+        merge();
+        text.moveTo(carets[primary]);
+        render.renderCursor();
+        render.renderScrollBar();
+        show();
+    }
+
+    /**
+     * Make the edits of batch in order, lay out the paragraphs they touched in one pass,
+     * and put a cursor after each inserted text. Undo and redo apply batches through here too.
+     */
+    public void apply(Action batch) {
+        int[] offsets = batch.getOffsets();
+        String[] removed = batch.getRemoved();
+        String[] inserted = batch.getInserted();
+        int n = offsets.length;
+        // A batch made from the last cursor to the first; its inverse runs from the first to the last.
+        boolean descending = n > 1 && offsets[0] > offsets[n - 1];
+
+        applying = true;
+        ArrayList<Text> added = new ArrayList<>();
+        ArrayList<Text> gone = new ArrayList<>();
+        for (int k = 0; k < n; k += 1) {
+            if (!removed[k].isEmpty()) {
+                gone.addAll(text.removeRange(offsets[k], offsets[k] + removed[k].length()));
+            }
+            if (!inserted[k].isEmpty()) {
+                ArrayList<Text> texts = new ArrayList<>(inserted[k].length());
+                for (int i = 0; i < inserted[k].length(); i += 1) {
+                    char c = inserted[k].charAt(i);
+                    texts.add(new Text(c == '\n' ? TextBuffer.NEWLINE : String.valueOf(c)));
+                }
+                text.insertAll(offsets[k], texts);
+                added.addAll(texts);
+            }
+        }
+        applying = false;
+        if (!gone.isEmpty()) {
+            root.getChildren().removeAll(new HashSet<>(gone));
+        }
+        if (!added.isEmpty()) {
+            root.getChildren().addAll(0, added);
+        }
+
+        // Where every inserted text ended up, first to last: an edit moves the ones made after it
+        // only in a descending batch, where those are the ones in front of it.
+        ensureCapacity(n);
+        int[] ranges = new int[2 * n];
+        int delta = 0;
+        for (int j = 0; j < n; j += 1) {
+            int k = descending ? n - 1 - j : j;
+            int start = offsets[k] + (descending ? delta : 0);
+            ranges[2 * j] = start;
+            ranges[2 * j + 1] = start + inserted[k].length();
+            delta += inserted[k].length() - removed[k].length();
+            anchors[j] = ranges[2 * j + 1];
+            carets[j] = ranges[2 * j + 1];
+        }
+        count = n;
+        primary = Math.min(primary, n - 1);
+        last = Math.min(last, n - 1);
+        active = n > 1;
+        merge();
+        text.moveTo(carets[primary]);
+        render.renderEdits(ranges, 2 * n);
+        show();
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        if (!active || applying) {
+            return;
+        }
+        for (int i = 0; i < count; i += 1) {
+            anchors[i] = anchors[i] >= offset ? anchors[i] + s.length() : anchors[i];
+            carets[i] = carets[i] >= offset ? carets[i] + s.length() : carets[i];
+        }
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        if (!active || applying) {
+            return;
+        }
+        for (int i = 0; i < count; i += 1) {
+            anchors[i] = anchors[i] > offset ? Math.max(offset, anchors[i] - s.length()) : anchors[i];
+            carets[i] = carets[i] > offset ? Math.max(offset, carets[i] - s.length()) : carets[i];
+        }
+        merge();
+    }
+
+    private void begin(int anchor, int caret) {
+        active = true;
+        anchors[0] = anchor;
+        carets[0] = caret;
+        count = 1;
+        primary = 0;
+        last = 0;
+    }
+
+    // Add a cursor in position order and return its index, or the index of a cursor it overlaps.
+    private int insert(int anchor, int caret) {
+        int from = Math.min(anchor, caret);
+        int to = Math.max(anchor, caret);
+        int i = 0;
+        while (i < count && end(i) < from) {
+            i += 1;
+        }
+        if (i < count && (start(i) < to || (start(i) == from && end(i) == to) || carets[i] == caret)) {
+            return i;
+        }
+        ensureCapacity(count + 1);
+        System.arraycopy(anchors, i, anchors, i + 1, count - i);
+        System.arraycopy(carets, i, carets, i + 1, count - i);
+        anchors[i] = anchor;
+        carets[i] = caret;
+        count += 1;
+        if (primary >= i) {
+            primary += 1;
+        }
+        return i;
+    }
+
+    // Join cursors that ended up on the same place or selecting overlapping text.
+    private void merge() {
+        int kept = 0;
+        for (int i = 0; i < count; i += 1) {
+            if (kept > 0 && (start(i) < end(kept - 1) || carets[i] == carets[kept - 1])) {
+                anchors[kept - 1] = Math.min(start(kept - 1), start(i));
+                carets[kept - 1] = Math.max(end(kept - 1), end(i));
+                primary = primary == i ? kept - 1 : primary;
+                last = last == i ? kept - 1 : last;
+                continue;
+            }
+            anchors[kept] = anchors[i];
+            carets[kept] = carets[i];
+            primary = primary == i ? kept : primary;
+            last = last == i ? kept : last;
+            kept += 1;
+        }
+        count = kept;
+    }
+
+    private boolean overlaps(int from, int to) {
+        for (int i = 0; i < count; i += 1) {
+            if (start(i) < to && from < end(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int indexOf(String needle, int from) {
+        for (int i = from; i + needle.length() <= store.length(); i += 1) {
+            int k = 0;
+            while (k < needle.length() && store.charAt(i + k) == needle.charAt(k)) {
+                k += 1;
+            }
+            if (k == needle.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void show() {
+        render.setCursors(anchors, carets, active ? count : 0);
+    }
+
+    private int start(int i) {
+        return Math.min(anchors[i], carets[i]);
+    }
+
+    private int end(int i) {
+        return Math.max(anchors[i], carets[i]);
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > anchors.length) {
+            anchors = Arrays.copyOf(anchors, Math.max(n, anchors.length * 2));
+            carets = Arrays.copyOf(carets, anchors.length);
+        }
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -4,15 +4,19 @@ import javafx.scene.Group;
 import javafx.geometry.VPos;
 import javafx.scene.text.Font;
 import javafx.scene.text.Text;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
 import javafx.scene.control.ScrollBar;
 import javafx.geometry.Orientation;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 
 /** Text editor layout render engine. */
-public class Render {
+public class Render implements BufferListener {
     private int WINDOW_WIDTH;
     private int WINDOW_HEIGHT;
     private int MAX_LINE_WIDTH;
@@ -23,25 +27,76 @@ public class Render {
     private Cursor c;
 
     private ScrollBar sb;
+    private Minimap minimap;
+    private boolean showMinimap = true;
+    private LineGutter gutter;
+    private TileCache tiles;
+    private LayoutCache layoutCache;
+    // Memory for tiles of rendered lines, in megabytes.
+    private static final long TILE_BUDGET_MB = Long.getLong("editor.tileCacheMB", 64);
+    private MemoryUsage memory;
 
     private int fontSize = 12;
     private static String fontName = "Verdana";
-    private int spaceIndex;
+    private Font font;
+    private GlyphCache glyphs;
+
+    private static final int[] NO_XS = new int[0];
+
+    // Scratch arrays for the paragraph being wrapped, and where it ended.
+    private char[] paragraphChars = new char[256];
+    private int[] paragraphWidths = new int[256];
+    private TextBuffer.Node paragraphEnd;
+
+    // Wrapped layout of every logical line, used for hit testing and selection.
+    private VisualLineIndex visualLines;
+    private Group selectionRoot;
+    private int selectionStart;
+    private int selectionEnd;
+    // Misspelled words as start and end offsets, underlined if they are in the window.
+    private Group underlineRoot;
+    private int[] underlines = new int[0];
+    private int underlineCount;
+    private SpellChecker spelling;
+    // The other cursors of multi-cursor editing, drawn in caretRoot with their selections.
+    private Group caretRoot;
+    private int[] extraAnchors = new int[0];
+    private int[] extraCarets = new int[0];
+    private int extraCount;
+    // Collapsed regions: their lines take no rows and their Text nodes are out of the scene.
+    private FoldIndex folds;
 
     // To set the cursor initial height
     private Text autoHeight;
 
-    public Render(final Group root, final Group textRoot, TextBuffer text, int window_width, int window_height) {
+    public Render(final Group root, final Group textRoot, TextBuffer text, GlyphCache glyphs, int window_width, int window_height) {
         WINDOW_WIDTH = window_width;
         WINDOW_HEIGHT = window_height;
+        this.glyphs = glyphs;
+        font = glyphs.font(fontName, fontSize);
         autoHeight = new Text();
         autoHeight.setTextOrigin(VPos.TOP);
-        autoHeight.setFont(Font.font(fontName,  fontSize));
+        autoHeight.setFont(font);
 
         this.root = root;
         this.textRoot = textRoot;
         this.text = text;
-        this.spaceIndex = -1;
+        visualLines = new VisualLineIndex();
+        text.addListener(this);
+        folds = new FoldIndex(text);
+
+        // Selection highlights and underlines are drawn behind the text. Text nodes are inserted near
+        // the front of textRoot's children, so the order of the children can't keep them behind.
+        selectionRoot = new Group();
+        selectionRoot.setViewOrder(1);
+        textRoot.getChildren().add(selectionRoot);
+        underlineRoot = new Group();
+        underlineRoot.setMouseTransparent(true);
+        underlineRoot.setViewOrder(1);
+        textRoot.getChildren().add(underlineRoot);
+        caretRoot = new Group();
+        caretRoot.setMouseTransparent(true);
+        textRoot.getChildren().add(caretRoot);
 
         // Initialize the cursor
         c = new Cursor();
@@ -63,6 +118,23 @@ public class Render {
         sb.setMax(0);
         root.getChildren().add(sb);
 
+        // The minimap sits between the text and the scroll bar.
+        minimap = new Minimap(text, this);
+        minimap.setBounds(usableScreenWidth - Minimap.WIDTH, window_height);
+        root.getChildren().add(minimap.getRoot());
+
+        // Optional snapshots of the text, shown instead of the Text nodes while scrolling.
+        tiles = new TileCache(text, this, textRoot, TILE_BUDGET_MB << 20, c, selectionRoot, underlineRoot, caretRoot);
+        root.getChildren().add(tiles.getRoot());
+        memory = new MemoryUsage(text, visualLines, glyphs, tiles);
+
+        // Line numbers sit left of the text, which is moved right to make room for them.
+        gutter = new LineGutter(text, this, glyphs);
+        root.getChildren().add(gutter.getRoot());
+
+        // Spell checking is off until it is turned on.
+        spelling = new SpellChecker(text, this);
+
         // Scroll bar listener
         // When the scroll bar changes position, change the content display.
         sb.valueProperty().addListener(new ChangeListener<Number>() {
@@ -77,77 +149,749 @@ public class Render {
                 int shift = (int) ((double) newValue * (height - getWindowHeight()) / (double) getWindowHeight());
                 // Change the content display
                 textRoot.setLayoutY(-shift);
+                renderSelection();
+                tiles.scrolled();
+                minimap.refresh();
+                gutter.refresh();
             }
         });
     }
 
+    /** Use cache to skip wrapping the file when nothing changed since it was last laid out. */
+    public void setLayoutCache(LayoutCache cache) {
+        layoutCache = cache;
+    }
+
     public void renderAll() {
-        MAX_LINE_WIDTH = (int) (WINDOW_WIDTH - 10 - Math.round(sb.getLayoutBounds().getWidth()));
+        MAX_LINE_WIDTH = maxLineWidth();
+        textRoot.setLayoutX(gutter.width(font));
         renderContent();
         renderCursor();
         renderScrollBar();
     }
 
+    /**
+     * Relayout after a single character was inserted or removed at pos.
+     * Only the paragraphs around pos are wrapped again; later paragraphs are just moved up or down.
+     */
+    public void renderEdit(int pos) {
+        renderEdit(pos, pos);
+    }
+
+    /** Relayout after the text between pos and end was replaced; end is the end of the new text. */
+    public void renderEdit(int pos, int end) {
+        renderEdits(new int[] {pos, end}, 2);
+    }
+
+    /**
+     * Relayout after several edits at once: ranges holds the start and end of each new text, sorted.
+     * The paragraphs around each edit are wrapped again in one pass; the paragraphs between them
+     * only move by the rows gained or lost above them.
+     */
+    public void renderEdits(int[] ranges, int count) {
+        if (maxLineWidth() != MAX_LINE_WIDTH || folds.isBroken()) {
+            // The gutter grew or shrank by a digit, or an edit opened a fold:
+            // every paragraph has to be wrapped again.
+            clearSelection();
+            renderAll();
+            return;
+        }
+        LineIndex lines = text.getLineIndex();
+        int size = text.size();
+        if (size > 0 && count > 0) {
+            int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+            // Walk back to the first character of the paragraph holding the first edit.
+            int start = Math.min(ranges[0], size - 1);
+            TextBuffer.Node n = text.nodeAt(start);
+            while (start > 0 && !TextBuffer.isNewline(n.prev.text)) {
+                n = n.prev;
+                start -= 1;
+            }
+            int shift = 0;
+            for (int i = 0; i < count; i += 2) {
+                int pos = Math.min(ranges[i], size - 1);
+                int end = ranges[i + 1];
+                if (start > end + 1) {
+                    // Wrapped already along with an earlier edit.
+                    continue;
+                }
+                // Move the paragraphs up to this edit, and find the first character of its paragraph.
+                TextBuffer.Node paragraph = n;
+                int paragraphStart = start;
+                while (start < pos) {
+                    if (shift != 0) {
+                        n.text.setY(n.text.getY() + shift);
+                    }
+                    boolean newline = TextBuffer.isNewline(n.text);
+                    FoldIndex.Fold fold = newline ? folds.foldAfter(n) : null;
+                    if (fold != null) {
+                        // Folded lines are stepped over, they are placed when they are shown again.
+                        start += 1 + folds.hiddenLength(fold);
+                        n = fold.after;
+                    } else {
+                        n = n.next;
+                        start += 1;
+                    }
+                    if (newline) {
+                        paragraph = n;
+                        paragraphStart = start;
+                    }
+                }
+                start = paragraphStart;
+                n = paragraph;
+                int line = lines.lineOfOffset(start);
+                int y = visualLines.firstRow(line) * lineHeight;
+
+                // An inserted line break also creates a new paragraph right after the edit.
+                while (start < size && start <= end + 1) {
+                    VisualLineIndex.Layout layout = layoutParagraph(n, start, y);
+                    visualLines.set(line, layout);
+                    y += layout.rows() * lineHeight;
+                    start += layout.length;
+                    line += 1;
+                    n = paragraphEnd;
+                    FoldIndex.Fold fold = folds.foldAfter(n.prev);
+                    if (fold != null) {
+                        start += folds.hiddenLength(fold);
+                        line = fold.end + 1;
+                        n = fold.after;
+                    }
+                }
+                shift = start < size ? y - (int) n.text.getY() : 0;
+            }
+
+            // The remaining paragraphs keep their wrapping, they only move if the row count changed.
+            if (shift != 0) {
+                boolean folded = !folds.isEmpty();
+                while (start < size) {
+                    n.text.setY(n.text.getY() + shift);
+                    FoldIndex.Fold fold = folded && TextBuffer.isNewline(n.text) ? folds.foldAfter(n) : null;
+                    if (fold != null) {
+                        start += 1 + folds.hiddenLength(fold);
+                        n = fold.after;
+                    } else {
+                        start += 1;
+                        n = n.next;
+                    }
+                }
+            }
+        }
+        // A trailing empty line holds no characters.
+        int lastLine = lines.lineCount() - 1;
+        if (lines.lineStart(lastLine) == size) {
+            visualLines.set(lastLine, VisualLineIndex.Layout.EMPTY);
+        }
+        clearSelection();
+        renderCursor();
+        renderScrollBar();
+    }
+
+    /**
+     * Lay out the whole document. The paragraphs are wrapped in parallel from the TextStore,
+     * then a running sum of their row counts gives each one its y while the nodes are placed.
+     * Folded lines are neither wrapped nor placed, and their nodes are not visited.
+     */
     public void renderContent() {
-        // Initialization part
-        Iterator<Text> curTextIterator = text.iterator();
-        Iterator<Text> prevTextIterator = text.iterator();
-        Text curText, prevText;
-        spaceIndex = -1;
+        LineIndex lines = text.getLineIndex();
+        TextStore store = text.getTextStore();
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        int lineCount = lines.lineCount();
+        showOpenedFolds();
+
+        // Measuring creates glyph cache entries, so it happens here and the wrapping threads only read.
+        glyphs.measureAll(store, font);
+        int[][] breaks = new int[lineCount][];
+        int[][] xs = new int[lineCount][];
+        for (FoldIndex.Fold fold : folds.getFolds()) {
+            Arrays.fill(xs, fold.start + 1, fold.end + 1, NO_XS);
+        }
+        // An unchanged file reopened with the same font and width keeps its wrap points from last time.
+        boolean cached = layoutCache != null && layoutCache.load(fontName, fontSize, MAX_LINE_WIDTH, breaks);
+        WrapLayout.wrapAll(store, lines, glyphs, font, MAX_LINE_WIDTH, breaks, xs);
+        if (!cached && layoutCache != null && folds.isEmpty()) {
+            layoutCache.save(fontName, fontSize, MAX_LINE_WIDTH, breaks);
+        }
+
+        // Scene graph nodes may only be touched on this thread.
+        visualLines.clearAll();
+        TextBuffer.Node n = text.getFirstNode();
+        int y = 0;
+        for (int line = 0; line < lineCount; line += 1) {
+            int length = xs[line].length;
+            if (length == 0) {
+                // Only a trailing empty line holds no characters.
+                visualLines.append(VisualLineIndex.Layout.EMPTY);
+                continue;
+            }
+            int[] lineBreaks = breaks[line];
+            int[] lineXs = xs[line];
+            TextBuffer.Node[] rowNodes = new TextBuffer.Node[lineBreaks.length + 1];
+            rowNodes[0] = n;
+            int row = 0;
+            for (int i = 0; i < length; i += 1) {
+                if (row < lineBreaks.length && lineBreaks[row] == i) {
+                    row += 1;
+                    rowNodes[row] = n;
+                }
+                Text curText = n.text;
+                if (curText.getFont() != font) {
+                    curText.setTextOrigin(VPos.TOP);
+                    curText.setFont(font);
+                }
+                curText.setX(lineXs[i]);
+                curText.setY(y + row * lineHeight);
+                n = n.next;
+            }
+            visualLines.append(new VisualLineIndex.Layout(length, lineBreaks, lineXs, rowNodes));
+            y += rowNodes.length * lineHeight;
+            FoldIndex.Fold fold = folds.foldAt(line);
+            if (fold != null) {
+                for (int hidden = fold.start + 1; hidden <= fold.end; hidden += 1) {
+                    visualLines.append(VisualLineIndex.Layout.FOLDED);
+                }
+                line = fold.end;
+                n = fold.after;
+            }
+        }
+        renderSelection();
+    }
+
+    /** Fold the region at the cursor's line, or open it again if that line is a folded header. */
+    public void toggleFold() {
+        int line = text.getLineIndex().lineOfOffset(text.getCurrentPos());
+        FoldIndex.Fold fold = folds.hiding(line);
+        if (fold == null) {
+            fold = folds.foldAt(line);
+        }
+        if (fold != null) {
+            unfold(fold);
+            return;
+        }
+        int[] region = folds.regionAt(line);
+        if (region != null) {
+            fold(region[0], region[1]);
+        }
+    }
+
+    /** Open every fold. */
+    public void unfoldAll() {
+        while (!folds.isEmpty()) {
+            unfold(folds.getFolds().get(0));
+        }
+    }
+
+    /** Open the folds that hide pos. */
+    public void reveal(int pos) {
+        int line = text.getLineIndex().lineOfOffset(pos);
+        for (FoldIndex.Fold fold = folds.hiding(line); fold != null; fold = folds.hiding(line)) {
+            unfold(fold);
+        }
+    }
+
+    /**
+     * Hide the lines after start up to end: their Text nodes leave the scene, their layouts take no
+     * rows, and only the header is laid out again while the paragraphs below move up.
+     */
+    private void fold(int start, int end) {
+        LineIndex lines = text.getLineIndex();
+        int headerEnd = lines.lineStart(start + 1) - 1;
+        if (text.getCurrentPos() > headerEnd) {
+            // The cursor was inside the region, it goes to the end of the header.
+            text.moveTo(headerEnd);
+        }
+        TextBuffer.Node header = text.nodeAt(headerEnd);
+        ArrayList<Text> hidden = new ArrayList<>();
+        TextBuffer.Node n = header.next;
+        for (int i = lines.lineStart(end + 1) - headerEnd - 1; i > 0; i -= 1) {
+            hidden.add(n.text);
+            n = n.next;
+        }
+        folds.add(new FoldIndex.Fold(start, end, header, n));
+        textRoot.getChildren().removeAll(new HashSet<>(hidden));
+        visualLines.fill(start + 1, end, VisualLineIndex.Layout.FOLDED);
+        tiles.layoutChanged(start);
+        renderEdit(lines.lineStart(start));
+    }
+
+    // Show the lines of fold again, except the ones folds inside it still hide, and lay them out.
+    private void unfold(FoldIndex.Fold fold) {
+        folds.remove(fold);
+        ArrayList<Text> shown = new ArrayList<>();
+        TextBuffer.Node n = fold.header.next;
+        while (n != fold.after) {
+            shown.add(n.text);
+            FoldIndex.Fold inner = TextBuffer.isNewline(n.text) ? folds.foldAfter(n) : null;
+            n = inner != null ? inner.after : n.next;
+        }
+        textRoot.getChildren().addAll(0, shown);
+        tiles.layoutChanged(fold.start);
+        LineIndex lines = text.getLineIndex();
+        renderEdit(lines.lineStart(fold.start + 1), lines.lineStart(fold.end + 1));
+    }
+
+    // Put the Text nodes of folds an edit opened back in the scene, before the lines are placed.
+    private void showOpenedFolds() {
+        if (!folds.takeBroken()) {
+            return;
+        }
+        ArrayList<Text> shown = new ArrayList<>();
+        TextBuffer.Node n = text.getFirstNode();
+        for (int i = text.size(); i > 0; i -= 1) {
+            if (n.text.getParent() == null) {
+                shown.add(n.text);
+            }
+            FoldIndex.Fold fold = TextBuffer.isNewline(n.text) ? folds.foldAfter(n) : null;
+            if (fold != null) {
+                i -= folds.hiddenLength(fold);
+                n = fold.after;
+            } else {
+                n = n.next;
+            }
+        }
+        textRoot.getChildren().addAll(0, shown);
+    }
+
+    /**
+     * Move the cursor one visible row up or down, keeping its x; the rows of folded lines
+     * are not there to stop on.
+     */
+    public void moveRow(int delta) {
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        placeCursor(c.getX(), c.getY() + delta * lineHeight + lineHeight / 2.0);
+        renderCursor();
+        renderScrollBar();
+    }
+
+    /** If the cursor went into folded lines, move it past them, to the next line or the end of the header. */
+    public void stepOverFold(boolean forward) {
+        LineIndex lines = text.getLineIndex();
+        FoldIndex.Fold fold = folds.hiding(lines.lineOfOffset(text.getCurrentPos()));
+        if (fold == null) {
+            return;
+        }
+        if (forward) {
+            text.setCurrentNode(fold.after);
+            text.setCurrentPos(lines.lineStart(fold.end + 1));
+        } else {
+            text.setCurrentNode(fold.header);
+            text.setCurrentPos(lines.lineStart(fold.start + 1) - 1);
+        }
+    }
+
+    public FoldIndex getFolds() {
+        return folds;
+    }
+
+    public MemoryUsage getMemory() {
+        return memory;
+    }
+
+    // Lay out the paragraph starting at node first (text position pos) with its first row at y,
+    // and leave the node after the paragraph in paragraphEnd.
+    private VisualLineIndex.Layout layoutParagraph(TextBuffer.Node first, int pos, int y) {
         int size = text.size();
-        int xPos;
-
-        // Set the text position.
-        for (int i = 0; i < size; i+=1) {
-            curText = curTextIterator.next();
-            // Set the first character font size and font family.
-            curText.setTextOrigin(VPos.TOP);
-            curText.setFont(Font.font(fontName, fontSize));
-
-            if (i == 0) {
-                // Display the text in a window with a top and bottom margin of 0,
-                // and a left and right margin of 5 pixels.
-                xPos = 5;
-                prevText = curText;
-                // Record the first charcter in first line y's position.
-                text.recordLine(0, 0);
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+
+        // Gather the paragraph up to and including its line break.
+        int count = 0;
+        TextBuffer.Node n = first;
+        while (pos + count < size) {
+            Text curText = n.text;
+            if (curText.getFont() != font) {
+                curText.setTextOrigin(VPos.TOP);
+                curText.setFont(font);
+            }
+            if (count == paragraphChars.length) {
+                paragraphChars = Arrays.copyOf(paragraphChars, count * 2);
+                paragraphWidths = Arrays.copyOf(paragraphWidths, count * 2);
+            }
+            paragraphChars[count] = TextBuffer.charOf(curText);
+            paragraphWidths[count] = glyphs.width(paragraphChars[count], font);
+            count += 1;
+            n = n.next;
+            if (TextBuffer.isNewline(curText)) {
+                break;
+            }
+        }
+        paragraphEnd = n;
+
+        int[] breaks = WrapLayout.wrap(paragraphChars, paragraphWidths, count, MAX_LINE_WIDTH);
+        int[] xs = new int[count];
+        TextBuffer.Node[] rowNodes = new TextBuffer.Node[breaks.length + 1];
+
+        // Set the text position row by row.
+        n = first;
+        int row = 0;
+        int xPos = WrapLayout.LEFT_MARGIN;
+        rowNodes[0] = first;
+        for (int i = 0; i < count; i += 1) {
+            if (row < breaks.length && breaks[row] == i) {
+                row += 1;
+                y += lineHeight;
+                xPos = WrapLayout.LEFT_MARGIN;
+                rowNodes[row] = n;
+            }
+            n.text.setX(xPos);
+            n.text.setY(y);
+            xs[i] = xPos;
+            xPos += paragraphWidths[i];
+            n = n.next;
+        }
+        return new VisualLineIndex.Layout(count, breaks, xs, rowNodes);
+    }
+
+    /**
+     * Move the cursor to the character closest to (x, y) in content coordinates and return its position.
+     */
+    public int placeCursor(double x, double y) {
+        int pos = positionAt(x, y);
+        moveToPosition(pos);
+        return pos;
+    }
+
+    /**
+     * Return the position of the character closest to (x, y) in content coordinates.
+     * The row is found in the visual line index and the column by binary search over the x positions.
+     */
+    public int positionAt(double x, double y) {
+        LineIndex lines = text.getLineIndex();
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        int row = Math.max(0, Math.min(visualLines.rowCount() - 1, (int) Math.floor(y / lineHeight)));
+        int line = visualLines.lineOfRow(row);
+        VisualLineIndex.Layout layout = visualLines.get(line);
+        int r = row - visualLines.firstRow(line);
+        int lineStart = lines.lineStart(line);
+        if (layout.length == 0) {
+            return lineStart;
+        }
+
+        int rowStart = layout.rowStart(r);
+        int rowEnd = layout.rowEnd(r);
+        // Find the first character whose middle is right of x.
+        int lo = rowStart;
+        int hi = rowEnd;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int w = glyphs.width(text.getTextStore().charAt(lineStart + mid), font);
+            if (layout.xs[mid] + w / 2.0 > x) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        // Past the end of a wrapped row or of a line with a line break, stay in front of its last character.
+        if (lo == rowEnd && (r < layout.breaks.length || line < lines.lineCount() - 1)) {
+            lo = rowEnd - 1;
+        }
+        return lineStart + lo;
+    }
+
+    // Move the buffer's current position to pos, finding the node from the start of its wrapped row.
+    private void moveToPosition(int pos) {
+        LineIndex lines = text.getLineIndex();
+        int line = lines.lineOfOffset(pos);
+        VisualLineIndex.Layout layout = visualLines.get(line);
+        int i = pos - lines.lineStart(line);
+        if (i < layout.length) {
+            int r = layout.rowOf(i);
+            TextBuffer.Node n = layout.rowNodes[r];
+            for (int k = layout.rowStart(r); k < i; k += 1) {
+                n = n.next;
+            }
+            text.setCurrentNode(n);
+            text.setCurrentPos(pos);
+        } else {
+            // Only the trailing empty line has no characters, it is next to the end of the buffer.
+            text.moveTo(pos);
+        }
+    }
+
+    /** Highlight the text between the two positions, in either order. */
+    public void setSelection(int from, int to) {
+        selectionStart = Math.min(from, to);
+        selectionEnd = Math.max(from, to);
+        renderSelection();
+    }
+
+    public void clearSelection() {
+        if (selectionStart != selectionEnd) {
+            selectionStart = 0;
+            selectionEnd = 0;
+            renderSelection();
+        }
+    }
+
+    public int getSelectionStart() {
+        return selectionStart;
+    }
+
+    public int getSelectionEnd() {
+        return selectionEnd;
+    }
+
+    /** Show the cursors of multi-cursor editing; count of 0 leaves only the primary cursor. */
+    public void setCursors(int[] anchors, int[] carets, int count) {
+        extraAnchors = anchors;
+        extraCarets = carets;
+        extraCount = count;
+        renderSelection();
+    }
+
+    // Draw one rectangle for every selected row that is inside the window, and the other cursors.
+    private void renderSelection() {
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        int firstVisible = (int) (-textRoot.getLayoutY() / lineHeight);
+        int lastVisible = firstVisible + WINDOW_HEIGHT / lineHeight + 1;
+        int used = drawSelection(selectionStart, selectionEnd, 0, firstVisible, lastVisible);
+        int carets = 0;
+        for (int i = 0; i < extraCount; i += 1) {
+            int from = Math.min(Math.min(extraAnchors[i], extraCarets[i]), text.size());
+            int to = Math.min(Math.max(extraAnchors[i], extraCarets[i]), text.size());
+            used = drawSelection(from, to, used, firstVisible, lastVisible);
+            int row = rowOfPosition(extraCarets[i]);
+            if (row < firstVisible || row > lastVisible) {
+                continue;
+            }
+            if (carets == caretRoot.getChildren().size()) {
+                Rectangle caret = new Rectangle(1, lineHeight);
+                caret.setFill(Color.BLACK);
+                caretRoot.getChildren().add(caret);
+            }
+            Rectangle caret = (Rectangle) caretRoot.getChildren().get(carets);
+            LineIndex lines = text.getLineIndex();
+            int line = visualLines.lineOfRow(row);
+            int lineStart = lines.lineStart(line);
+            caret.setX(xOfPosition(visualLines.get(line), lineStart, extraCarets[i], row - visualLines.firstRow(line)));
+            caret.setY(row * lineHeight);
+            caret.setHeight(lineHeight);
+            caret.setVisible(true);
+            carets += 1;
+        }
+        for (int i = used; i < selectionRoot.getChildren().size(); i += 1) {
+            selectionRoot.getChildren().get(i).setVisible(false);
+        }
+        for (int i = carets; i < caretRoot.getChildren().size(); i += 1) {
+            caretRoot.getChildren().get(i).setVisible(false);
+        }
+    }
+
+    // Draw the rows of the selection from start to end that are in the window, reusing boxes from used on.
+    private int drawSelection(int start, int end, int used, int firstVisible, int lastVisible) {
+        if (start >= end) {
+            return used;
+        }
+        LineIndex lines = text.getLineIndex();
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        int startRow = Math.max(firstVisible, rowOfPosition(start));
+        int endRow = Math.min(lastVisible, rowOfPosition(end));
+
+        for (int row = startRow; row <= endRow; row += 1) {
+            int line = visualLines.lineOfRow(row);
+            VisualLineIndex.Layout layout = visualLines.get(line);
+            int r = row - visualLines.firstRow(line);
+            int lineStart = lines.lineStart(line);
+            int from = Math.max(start, lineStart + layout.rowStart(r));
+            int to = Math.min(end, lineStart + layout.rowEnd(r));
+            double x1 = xOfPosition(layout, lineStart, from, r);
+            double x2;
+            if (to < end && r == layout.breaks.length) {
+                // The selection runs on past the end of the line.
+                x2 = MAX_LINE_WIDTH;
             } else {
-                prevText = prevTextIterator.next();
-                xPos = (int) (prevText.getX() + Math.round(prevText.getLayoutBounds().getWidth()));
+                x2 = xOfPosition(layout, lineStart, to, r);
             }
+            if (x2 <= x1) {
+                continue;
+            }
+            Rectangle box;
+            if (used == selectionRoot.getChildren().size()) {
+                box = new Rectangle();
+                box.setFill(Color.LIGHTBLUE);
+                selectionRoot.getChildren().add(box);
+            }
+            box = (Rectangle) selectionRoot.getChildren().get(used);
+            box.setVisible(true);
+            box.setX(x1);
+            box.setY(row * lineHeight);
+            box.setWidth(x2 - x1);
+            box.setHeight(lineHeight);
+            used += 1;
+        }
+        return used;
+    }
+
+    private int rowOfPosition(int pos) {
+        LineIndex lines = text.getLineIndex();
+        int line = lines.lineOfOffset(pos);
+        VisualLineIndex.Layout layout = visualLines.get(line);
+        return visualLines.firstRow(line) + layout.rowOf(pos - lines.lineStart(line));
+    }
 
-            if (curText.getText().equals(" ")) {
-                spaceIndex = i;
+    // The x of the left edge of the character at pos, measured in row r of the line.
+    private double xOfPosition(VisualLineIndex.Layout layout, int lineStart, int pos, int r) {
+        int i = pos - lineStart;
+        if (i < layout.rowEnd(r)) {
+            return layout.xs[i];
+        }
+        if (i == layout.rowStart(r)) {
+            return WrapLayout.LEFT_MARGIN;
+        }
+        return layout.xs[i - 1] + glyphs.width(text.getTextStore().charAt(pos - 1), font);
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        // Keep one layout per logical line; new lines are wrapped by renderEdit.
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\n') {
+                visualLines.insertLine(line + 1);
             }
+        }
+    }
 
-            // If we add new character (exclude carriage/return character) and causes current position x in line over the window_width range,
-            // then it will trigger wrapping line event.
-            if (xPos + Math.round(curText.getLayoutBounds().getWidth()) > MAX_LINE_WIDTH
-                && !curText.getText().equals(System.getProperty("line.separator"))) {
-                wrapLine(curText, i);
+    @Override
+    public void removed(int offset, String s, int line) {
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\n') {
+                visualLines.removeLine(line + 1);
             }
-            else if (prevText.getText().equals(System.getProperty("line.separator"))) {
-                // If the previous text is Enter (c/r) character, then we move into the next line.
-                curText.setX(5);
-                if (prevText == curText) {
-                    // If we add the Enter node in the first (current) text of file.
-                    curText.setY(0);
-                } else {
-                    // The Enter node boundary height is twice than normal text, so we set it as autoheight.
-                    curText.setY(prevText.getY() + Math.round(autoHeight.getLayoutBounds().getHeight()));
+        }
+    }
+
+    // The text fills the window except for the margins, the gutter, the scroll bar and the minimap.
+    private int maxLineWidth() {
+        int width = (int) (WINDOW_WIDTH - 10 - gutter.width(font) - Math.round(sb.getLayoutBounds().getWidth()));
+        return showMinimap ? width - Minimap.WIDTH : width;
+    }
+
+    public void toggleMinimap() {
+        showMinimap = !showMinimap;
+        minimap.getRoot().setVisible(showMinimap);
+        renderAll();
+    }
+
+    /** Turn drawing from cached tiles while scrolling on or off. */
+    public void toggleTiles() {
+        tiles.setEnabled(!tiles.isEnabled());
+    }
+
+    /** Turn underlining misspelled words on or off. */
+    public void toggleSpelling() {
+        spelling.setEnabled(!spelling.isEnabled());
+    }
+
+    /** Underline the text between each pair of offsets in ranges, up to count values. */
+    public void setUnderlines(int[] ranges, int count) {
+        underlines = ranges;
+        underlineCount = count;
+        renderUnderlines();
+    }
+
+    // Draw a line under every row of an underlined range, like the selection is drawn.
+    private void renderUnderlines() {
+        LineIndex lines = text.getLineIndex();
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        int used = 0;
+        for (int i = 0; i < underlineCount; i += 2) {
+            int start = underlines[i];
+            int end = Math.min(underlines[i + 1], text.size());
+            if (start >= end || folds.hiding(lines.lineOfOffset(start)) != null) {
+                continue;
+            }
+            for (int row = rowOfPosition(start); row <= rowOfPosition(end - 1); row += 1) {
+                int line = visualLines.lineOfRow(row);
+                VisualLineIndex.Layout layout = visualLines.get(line);
+                int r = row - visualLines.firstRow(line);
+                int lineStart = lines.lineStart(line);
+                int from = Math.max(start, lineStart + layout.rowStart(r));
+                int to = Math.min(end, lineStart + layout.rowEnd(r));
+                double x1 = xOfPosition(layout, lineStart, from, r);
+                double x2 = xOfPosition(layout, lineStart, to, r);
+                if (x2 <= x1) {
+                    continue;
                 }
-                text.recordLine((int) curText.getY(), i);
-            } else {
-                curText.setX(xPos);
-                if (prevText == curText) {
-                    // If the first (previous) text is Enter node and we remove it,
-                    // then we need update the current position node to be the first text position.
-                    curText.setY(0);
-                } else {
-                    curText.setY((int) prevText.getY());
+                Rectangle mark;
+                if (used == underlineRoot.getChildren().size()) {
+                    mark = new Rectangle();
+                    mark.setFill(Color.RED);
+                    mark.setHeight(1);
+                    underlineRoot.getChildren().add(mark);
                 }
+                mark = (Rectangle) underlineRoot.getChildren().get(used);
+                mark.setVisible(true);
+                mark.setX(x1);
+                mark.setY(row * lineHeight + lineHeight - 2);
+                mark.setWidth(x2 - x1);
+                used += 1;
             }
         }
+        for (int i = used; i < underlineRoot.getChildren().size(); i += 1) {
+            underlineRoot.getChildren().get(i).setVisible(false);
+        }
+    }
+
+    /** Return the first logical line inside the window. */
+    public int getTopLine() {
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        return visualLines.lineOfRow((int) (-textRoot.getLayoutY() / lineHeight));
+    }
+
+    /** Return the last logical line inside the window. */
+    public int getBottomLine() {
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        return visualLines.lineOfRow((int) ((-textRoot.getLayoutY() + WINDOW_HEIGHT) / lineHeight) - 1);
+    }
+
+    /** Return the content y of the first row of line. */
+    public int getLineY(int line) {
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        return visualLines.firstRow(line) * lineHeight;
+    }
+
+    /** Return the height of all wrapped rows. */
+    public int getContentHeight() {
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        return visualLines.rowCount() * lineHeight;
+    }
+
+    /** Return how far the content is scrolled up. */
+    public double getScrollY() {
+        return -textRoot.getLayoutY();
+    }
+
+    /**
+     * Move the cursor to pos and scroll its line into the middle of the window.
+     * The node is found from the start of its wrapped row, so the jump does not walk the document.
+     */
+    public void goTo(int pos) {
+        reveal(pos);
+        moveToPosition(pos);
+        clearSelection();
+        renderCursor();
+        scrollToLine(text.getLineIndex().lineOfOffset(pos));
+        renderScrollBar();
+    }
+
+    /** Scroll so that line is in the middle of the window. */
+    public void scrollToLine(int line) {
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        scrollTo(visualLines.firstRow(line) * lineHeight - WINDOW_HEIGHT / 2);
+    }
+
+    /** Scroll so that line is the first line in the window. */
+    public void scrollLineToTop(int line) {
+        int lineHeight = (int) Math.round(autoHeight.getLayoutBounds().getHeight());
+        scrollTo(visualLines.firstRow(line) * lineHeight);
+    }
+
+    /** Scroll so that content position y is at the top of the window, as far as the content allows. */
+    public void scrollTo(double y) {
+        Text lastWord = text.getLast();
+        int bottomHeight = (int) (lastWord.getY() + Math.round(lastWord.getLayoutBounds().getHeight()));
+        if (bottomHeight > WINDOW_HEIGHT) {
+            double value = y * WINDOW_HEIGHT / (double) (bottomHeight - WINDOW_HEIGHT);
+            sb.setValue(Math.max(0, Math.min(WINDOW_HEIGHT, value)));
+        }
     }
 
     public void renderScrollBar() {
@@ -165,6 +909,8 @@ public class Render {
             sb.setMax(0);
             sb.setValue(0);
         }
+        minimap.refresh();
+        gutter.refresh();
     }
 
     public void renderCursor() {
@@ -173,8 +919,8 @@ public class Render {
         // Set the cursor position.
         // The cursor will cover the first vertical line of pixels in current node.
         if (curPos > 0) {
-            Text curText = text.get(curPos);
-            Text prevText = text.get(curPos - 1);
+            Text curText = text.getCurrentNode().text;
+            Text prevText = text.getCurrentNode().prev.text;
             int cursorX = (int) (prevText.getX() + Math.round(prevText.getLayoutBounds().getWidth()));
 
             if (curPos != text.size()) {
@@ -202,65 +948,10 @@ public class Render {
         }
     }
 
-    // When wrapping line events happen, there are three possible situations that will trigger event.
-    // 1. Adding character in long word.
-    // 2. Adding character.
-    // 3. Adding whitespace.
-    // Wrapping line method will rearrange the current node x, y position.
-    public void wrapLine(Text curText, int curPos) {
-        int prevPos = curPos -1;
-        Text prevText = text.get(prevPos);
-        // spaceText is used to compare to the prevText to check whether these two in the same line.
-        Text spaceText = text.get(spaceIndex);
-
-        if (spaceIndex == -1 || (spaceText.getY() < prevText.getY() && !prevText.getText().equals(" ") && !curText.getText().equals(" "))) {
-            // If the long word is as long as the window_width, then the line should break in the middle of the word.
-            // For two cases:
-            // 1. long word beginning at the start of file.
-            // 2. long word generating in the middle of file. The last whitespace and added character is in different line.
-            curText.setX(5);
-            curText.setY((int) (prevText.getY() + Math.round(curText.getLayoutBounds().getHeight())));
-            text.recordLine((int) curText.getY(), curPos);
-        } else if (spaceText.getY() == prevText.getY() && !prevText.getText().equals(" ") && !curText.getText().equals(" ")) {
-            // If the normal length word is not finished in a line, then need to move to the next line.
-            // The last whitespace and added character is in the same line.
-            int lastWordPosInLine = spaceIndex + 1;
-            Iterator<Text> curTextIterator = text.iterator(lastWordPosInLine);
-            Iterator<Text> prevTextIterator = text.iterator(lastWordPosInLine);
-            Text curChar, prevChar;
-
-            // Setting the word's remaining characters position.
-            for (int j = lastWordPosInLine; j <= curPos; j += 1) {
-                curChar = curTextIterator.next();
-                if (j == lastWordPosInLine) {
-                    curChar.setX(5);
-                    curChar.setY((int) (curChar.getY() + Math.round(curChar.getLayoutBounds().getHeight())));
-                    text.recordLine((int) curChar.getY(), lastWordPosInLine);
-                } else {
-                    prevChar = prevTextIterator.next();
-                    curChar.setX((int) (prevChar.getX() + Math.round(prevChar.getLayoutBounds().getWidth())));
-                    curChar.setY((int) prevChar.getY());
-                }
-            }
-        } else if (spaceIndex == curPos || (!prevText.getText().equals(" ") && curText.getText().equals(" "))) {
-            // If whitespace is added and cause the break line event, then stay at the same line.
-            // Two cases: char + whitespace, whitespace + whitespace
-            curText.setX((int) (prevText.getX() + Math.round(prevText.getLayoutBounds().getWidth())));
-            curText.setY((int) prevText.getY());
-        } else if (prevText.getText().equals(" ") && !curText.getText().equals(" ")) {
-            // If the whitespace is the last word at the end of line,
-            // and cause the break line event after adding the new word,
-            // then reallocate the new word in the next line.
-            // Case: whitespace + char
-            curText.setX(5);
-            curText.setY((int) (prevText.getY() + Math.round(curText.getLayoutBounds().getHeight())));
-            text.recordLine((int) curText.getY(), curPos);
-        }
-    }
-
     public void updateFont(int newFontSize) {
         fontSize = newFontSize;
-        autoHeight.setFont(Font.font(fontName, newFontSize));
+        font = glyphs.font(fontName, fontSize);
+        autoHeight.setFont(font);
     }
 
     public void updateWindowWidth(double width) {
@@ -272,15 +963,17 @@ public class Render {
     }
 
     public void updateWindowSize(double width, double height) {
-        if (width < 0) {
+        if (height >= 0) {
             WINDOW_HEIGHT = (int) height;
             sb.setPrefHeight(WINDOW_HEIGHT);
             sb.setMin(0);
-        } else if (height < 0) {
+        }
+        if (width >= 0) {
             WINDOW_WIDTH = (int) width;
             int usableScreenWidth = (int) (WINDOW_WIDTH - Math.round(sb.getLayoutBounds().getWidth()));
             sb.setLayoutX(usableScreenWidth);
         }
+        minimap.setBounds((int) (WINDOW_WIDTH - Math.round(sb.getLayoutBounds().getWidth())) - Minimap.WIDTH, WINDOW_HEIGHT);
         renderAll();
     }
 
@@ -288,6 +981,14 @@ public class Render {
         return fontSize;
     }
 
+    public Font getFont() {
+        return font;
+    }
+
+    public int getWindowWidth() {
+        return WINDOW_WIDTH;
+    }
+
     public Text getAutoHeight() {
         return autoHeight;
     }
@@ -0,0 +1,313 @@
+package editor;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.scene.text.Font;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Underlines the words of the window that are not in a word list.
+ * Typing only notes which lines changed. Once per frame the lines in the window and the recently
+ * edited ones are looked up in a cache by the hash of their text, and the lines missing from it are
+ * checked on a background thread; the misspelled words of the window are then underlined by Render.
+ * Words with digits, underscores or inner capitals are taken to be code and left alone.
+ */
+public class SpellChecker implements BufferListener {
+    // Lines whose results are kept, and recently edited lines that are checked even out of the window.
+    private static final int CACHE_LINES = 4096;
+    private static final int RECENT_LINES = 32;
+    // Longer lines are only checked up to here.
+    private static final int MAX_LINE_CHARS = 4000;
+
+    private TextBuffer text;
+    private TextStore store;
+    private LineIndex lines;
+    private Render render;
+    private Path dictionaryPath;
+
+    private WordGraph dictionary;
+    private boolean loading;
+    private boolean enabled;
+    private ExecutorService worker;
+    private boolean running;
+
+    // Misspelled words of a line as start and end columns, by the hash of the line.
+    private LinkedHashMap<Long, int[]> results;
+    private int[] recent;
+    private int recentCount;
+    private int recentNext;
+
+    // What the window looked like when the underlines were last placed.
+    private boolean changed;
+    private double scrollY;
+    private int windowHeight;
+    private int contentWidth;
+    private Font font;
+    private int caret;
+    private AnimationTimer timer;
+
+    public SpellChecker(TextBuffer text, Render render) {
+        this.text = text;
+        this.store = text.getTextStore();
+        this.lines = text.getLineIndex();
+        this.render = render;
+        dictionaryPath = Paths.get(System.getProperty("editor.dictionary", "/usr/share/dict/words"));
+        results = new LinkedHashMap<Long, int[]>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+                return size() > CACHE_LINES;
+            }
+        };
+        recent = new int[RECENT_LINES];
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "spell-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                refresh();
+            }
+        };
+        text.addListener(this);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled) {
+            if (dictionary == null && !loading) {
+                loading = true;
+                worker.execute(this::loadDictionary);
+            }
+            changed = true;
+            timer.start();
+        } else {
+            timer.stop();
+            render.setUnderlines(new int[0], 0);
+        }
+    }
+
+    // Runs on the worker thread.
+    private void loadDictionary() {
+        try {
+            WordGraph graph = WordGraph.read(dictionaryPath);
+            Platform.runLater(() -> {
+                dictionary = graph;
+                changed = true;
+            });
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Can't read the word list " + dictionaryPath + "; exception was: " + e);
+            // Try again the next time checking is turned on.
+            Platform.runLater(() -> loading = false);
+        }
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        int added = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\n') {
+                added += 1;
+            }
+        }
+        for (int i = 0; i < recentCount; i += 1) {
+            if (recent[i] > line) {
+                recent[i] += added;
+            }
+        }
+        noteEdit(line);
+        changed = true;
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        int removed = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\n') {
+                removed += 1;
+            }
+        }
+        for (int i = 0; i < recentCount; i += 1) {
+            if (recent[i] > line) {
+                recent[i] = Math.max(line, recent[i] - removed);
+            }
+        }
+        noteEdit(line);
+        changed = true;
+    }
+
+    private void noteEdit(int line) {
+        if (recentCount > 0 && recent[(recentNext + RECENT_LINES - 1) % RECENT_LINES] == line) {
+            return;
+        }
+        recent[recentNext] = line;
+        recentNext = (recentNext + 1) % RECENT_LINES;
+        recentCount = Math.min(recentCount + 1, RECENT_LINES);
+    }
+
+    // Runs once per frame while enabled; does nothing unless the text or the window changed.
+    private void refresh() {
+        if (render.getScrollY() != scrollY || render.getWindowHeight() != windowHeight
+                || render.getContentWidth() != contentWidth || render.getFont() != font
+                || text.getCurrentPos() != caret) {
+            scrollY = render.getScrollY();
+            windowHeight = render.getWindowHeight();
+            contentWidth = render.getContentWidth();
+            font = render.getFont();
+            caret = text.getCurrentPos();
+            changed = true;
+        }
+        if (!changed || dictionary == null || text.size() == 0) {
+            return;
+        }
+        changed = false;
+
+        ArrayList<String> unchecked = new ArrayList<>();
+        HashSet<Long> queued = new HashSet<>();
+        int[] underlines = new int[64];
+        int count = 0;
+        int top = render.getTopLine();
+        int bottom = Math.min(lines.lineCount() - 1, render.getBottomLine());
+        FoldIndex folds = render.getFolds();
+        for (int line = top; line <= bottom; line = folds.lastHidden(line) + 1) {
+            String s = lineText(line);
+            long h = hash(s);
+            int[] misspelled = results.get(h);
+            if (misspelled == null) {
+                if (queued.add(h)) {
+                    unchecked.add(s);
+                }
+                continue;
+            }
+            int lineStart = lines.lineStart(line);
+            for (int i = 0; i < misspelled.length; i += 2) {
+                // The word being typed is not marked until the cursor leaves it.
+                if (lineStart + misspelled[i + 1] == caret) {
+                    continue;
+                }
+                if (count + 2 > underlines.length) {
+                    underlines = Arrays.copyOf(underlines, underlines.length * 2);
+                }
+                underlines[count] = lineStart + misspelled[i];
+                underlines[count + 1] = lineStart + misspelled[i + 1];
+                count += 2;
+            }
+        }
+        render.setUnderlines(underlines, count);
+
+        // Lines edited a moment ago are checked too, so their results are ready when they come into view.
+        for (int i = 0; i < recentCount; i += 1) {
+            if (recent[i] < lines.lineCount()) {
+                String s = lineText(recent[i]);
+                long h = hash(s);
+                if (!results.containsKey(h) && queued.add(h)) {
+                    unchecked.add(s);
+                }
+            }
+        }
+        if (!unchecked.isEmpty() && !running) {
+            running = true;
+            WordGraph words = dictionary;
+            worker.execute(() -> {
+                ArrayList<int[]> checked = new ArrayList<>(unchecked.size());
+                for (String s : unchecked) {
+                    checked.add(check(words, s));
+                }
+                Platform.runLater(() -> {
+                    for (int i = 0; i < unchecked.size(); i += 1) {
+                        results.put(hash(unchecked.get(i)), checked.get(i));
+                    }
+                    running = false;
+                    changed = true;
+                });
+            });
+        }
+    }
+
+    private String lineText(int line) {
+        int start = lines.lineStart(line);
+        return store.substring(start, start + Math.min(lines.lineLength(line), MAX_LINE_CHARS));
+    }
+
+    // Return the start and end column of every misspelled word of s.
+    private static int[] check(WordGraph words, String s) {
+        int[] misspelled = new int[0];
+        int i = 0;
+        while (i < s.length()) {
+            if (!isWordChar(s.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int start = i;
+            while (i < s.length() && (isWordChar(s.charAt(i))
+                    || (s.charAt(i) == '\'' && i + 1 < s.length() && Character.isLetter(s.charAt(i + 1))))) {
+                i += 1;
+            }
+            if (isProse(s, start, i) && !isKnown(words, s.substring(start, i))) {
+                misspelled = Arrays.copyOf(misspelled, misspelled.length + 2);
+                misspelled[misspelled.length - 2] = start;
+                misspelled[misspelled.length - 1] = i;
+            }
+        }
+        return misspelled;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    // A word of two or more letters without digits, underscores or a capital after a small letter.
+    private static boolean isProse(String s, int start, int end) {
+        if (end - start < 2) {
+            return false;
+        }
+        for (int i = start; i < end; i += 1) {
+            char c = s.charAt(i);
+            if (Character.isDigit(c) || c == '_') {
+                return false;
+            }
+            if (i > start && Character.isUpperCase(c) && Character.isLowerCase(s.charAt(i - 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A word at the start of a sentence or in capitals also matches the word in small letters.
+    private static boolean isKnown(WordGraph words, String word) {
+        if (words.contains(word)) {
+            return true;
+        }
+        String lower = word.toLowerCase();
+        if (words.contains(lower)) {
+            return true;
+        }
+        String capitalized = Character.toUpperCase(lower.charAt(0)) + lower.substring(1);
+        return words.contains(capitalized);
+    }
+
+    // 64-bit FNV-1a over the characters of s.
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i += 1) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,432 @@
+package editor;
+
+import javafx.scene.Group;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.geometry.VPos;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A second view of the shared TextBuffer with its own cursor, scroll offset and wrap layout.
+ * Only the visible rows get a Text node, and wrap points are kept for a bounded number of lines,
+ * so the memory a view needs does not grow with the size of the document.
+ */
+public class SplitView implements BufferListener {
+    // How many lines keep their wrap points around.
+    private static final int LAYOUT_CACHE_LINES = 512;
+
+    private TextBuffer text;
+    private TextStore store;
+    private LineIndex lines;
+    private GlyphCache glyphs;
+    private ViewManager views;
+
+    private Group viewRoot;
+    private Rectangle background;
+    private Rectangle clip;
+    private Cursor c;
+    private ArrayList<Text> rows;
+
+    private Font font;
+    private int width;
+    private int height;
+    private int maxLineWidth;
+
+    // The scroll offset is the first logical line shown and the visual row inside it.
+    private int topLine;
+    private int topRow;
+    // The cursor is kept as a text offset.
+    private int caret;
+
+    private LinkedHashMap<Integer, int[]> layouts;
+    private char[] lineChars = new char[256];
+    private int[] lineWidths = new int[256];
+
+    public SplitView(TextBuffer text, GlyphCache glyphs, Font font, ViewManager views) {
+        this.text = text;
+        this.store = text.getTextStore();
+        this.lines = text.getLineIndex();
+        this.glyphs = glyphs;
+        this.font = font;
+        this.views = views;
+        rows = new ArrayList<>();
+        layouts = new LinkedHashMap<Integer, int[]>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+                return size() > LAYOUT_CACHE_LINES;
+            }
+        };
+
+        viewRoot = new Group();
+        // The background hides whatever the primary view draws behind this pane.
+        background = new Rectangle(0, 0, Color.WHITE);
+        clip = new Rectangle(0, 0);
+        viewRoot.setClip(clip);
+        c = new Cursor();
+        c.setHeight(glyphs.lineHeight(font));
+        viewRoot.getChildren().addAll(background, c);
+
+        viewRoot.setOnMousePressed(mouseEvent -> {
+            views.focus(this);
+            caret = offsetAt(mouseEvent.getX(), mouseEvent.getY());
+            render();
+            mouseEvent.consume();
+        });
+        // Keep drags that start here away from the primary view.
+        viewRoot.setOnMouseDragged(mouseEvent -> {
+            caret = offsetAt(mouseEvent.getX(), mouseEvent.getY());
+            render();
+            mouseEvent.consume();
+        });
+        viewRoot.setOnMouseReleased(mouseEvent -> mouseEvent.consume());
+        viewRoot.setOnScroll(scrollEvent -> {
+            scroll(scrollEvent.getDeltaY() > 0 ? -3 : 3);
+            render();
+            scrollEvent.consume();
+        });
+        text.addListener(this);
+    }
+
+    public Group getRoot() {
+        return viewRoot;
+    }
+
+    public void dispose() {
+        text.removeListener(this);
+    }
+
+    public void setBounds(int x, int y, int width, int height) {
+        viewRoot.setLayoutX(x);
+        viewRoot.setLayoutY(y);
+        background.setWidth(width);
+        background.setHeight(height);
+        clip.setWidth(width);
+        clip.setHeight(height);
+        if (width != this.width) {
+            layouts.clear();
+        }
+        this.width = width;
+        this.height = height;
+        maxLineWidth = width - 10;
+        render();
+    }
+
+    public void setFont(Font font) {
+        this.font = font;
+        layouts.clear();
+        c.setHeight(glyphs.lineHeight(font));
+        render();
+    }
+
+    /** Handle a key event while this view has focus; edits go through the shared undo history. */
+    public void handle(KeyEvent keyEvent, KeyEventHandler editor) {
+        if (keyEvent.getEventType() == KeyEvent.KEY_TYPED) {
+            if (KeyEventHandler.isTextInput(keyEvent)) {
+                editor.insertAt(caret, keyEvent.getCharacter());
+                caret += 1;
+                keyEvent.consume();
+            }
+        } else if (keyEvent.getEventType() == KeyEvent.KEY_PRESSED) {
+            KeyCode code = keyEvent.getCode();
+            if (code == KeyCode.LEFT) {
+                caret = Math.max(0, caret - 1);
+            } else if (code == KeyCode.RIGHT) {
+                caret = Math.min(store.length(), caret + 1);
+            } else if (code == KeyCode.UP) {
+                caret = verticalMove(-1);
+            } else if (code == KeyCode.DOWN) {
+                caret = verticalMove(1);
+            } else if (code == KeyCode.BACK_SPACE) {
+                if (caret > 0) {
+                    // The buffer listener moves the cursor back.
+                    editor.removeAt(caret - 1);
+                }
+            } else if (code == KeyCode.ENTER) {
+                editor.insertAt(caret, TextBuffer.NEWLINE);
+                caret += 1;
+            }
+        }
+        scrollToCaret();
+        render();
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        int added = countLineBreaks(s);
+        invalidate(line, added);
+        if (offset < caret) {
+            caret += s.length();
+        }
+        if (line < topLine) {
+            topLine += added;
+        }
+        render();
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        int removed = countLineBreaks(s);
+        invalidate(line, -removed);
+        if (offset < caret) {
+            caret -= Math.min(s.length(), caret - offset);
+        }
+        if (line < topLine) {
+            topLine = Math.max(line, topLine - removed);
+        }
+        render();
+    }
+
+    /** Rebuild the visible rows; only lines that are not in the layout cache get wrapped. */
+    public void render() {
+        int lineHeight = glyphs.lineHeight(font);
+        int lineCount = lines.lineCount();
+        topLine = Math.min(topLine, lineCount - 1);
+        topRow = Math.min(topRow, breaksOf(topLine).length);
+
+        int used = 0;
+        int y = 0;
+        int line = topLine;
+        int row = topRow;
+        c.setVisible(false);
+        while (y < height && line < lineCount) {
+            int[] breaks = breaksOf(line);
+            int start = lines.lineStart(line);
+            int length = contentLength(line);
+            for (; row <= breaks.length && y < height; row += 1) {
+                int rowStart = row == 0 ? 0 : breaks[row - 1];
+                int rowEnd = row < breaks.length ? breaks[row] : length;
+                Text t = rowText(used);
+                used += 1;
+                t.setFont(font);
+                t.setText(store.substring(start + rowStart, start + rowEnd));
+                t.setX(WrapLayout.LEFT_MARGIN);
+                t.setY(y);
+
+                int local = caret - start;
+                if (local >= rowStart && (local < rowEnd || (row == breaks.length && local == length))) {
+                    int x = WrapLayout.LEFT_MARGIN;
+                    for (int i = start + rowStart; i < caret; i += 1) {
+                        x += glyphs.width(store.charAt(i), font);
+                    }
+                    c.setX(x);
+                    c.setY(y);
+                    c.setVisible(true);
+                }
+                y += lineHeight;
+            }
+            row = 0;
+            line += 1;
+        }
+        // Rows scrolled out of the view are kept for reuse.
+        for (int i = used; i < rows.size(); i += 1) {
+            rows.get(i).setVisible(false);
+        }
+    }
+
+    /** Move the scroll offset by n visual rows. */
+    public void scroll(int n) {
+        while (n > 0) {
+            if (topRow < breaksOf(topLine).length) {
+                topRow += 1;
+            } else if (topLine < lines.lineCount() - 1) {
+                topLine += 1;
+                topRow = 0;
+            } else {
+                break;
+            }
+            n -= 1;
+        }
+        while (n < 0) {
+            if (topRow > 0) {
+                topRow -= 1;
+            } else if (topLine > 0) {
+                topLine -= 1;
+                topRow = breaksOf(topLine).length;
+            } else {
+                break;
+            }
+            n += 1;
+        }
+    }
+
+    // Scroll just enough to bring the cursor row into the view.
+    private void scrollToCaret() {
+        int caretLine = lines.lineOfOffset(caret);
+        int caretRow = rowOf(breaksOf(caretLine), caret - lines.lineStart(caretLine));
+        if (caretLine < topLine || (caretLine == topLine && caretRow < topRow)) {
+            topLine = caretLine;
+            topRow = caretRow;
+            return;
+        }
+        int visibleRows = Math.max(1, height / glyphs.lineHeight(font));
+        int line = topLine;
+        int rowsAbove = -topRow;
+        while (line < caretLine && rowsAbove < visibleRows) {
+            rowsAbove += breaksOf(line).length + 1;
+            line += 1;
+        }
+        if (line < caretLine || rowsAbove + caretRow >= visibleRows) {
+            topLine = caretLine;
+            topRow = caretRow;
+            scroll(1 - visibleRows);
+        }
+    }
+
+    // Return the offset one visual row above (direction -1) or below (direction 1) the cursor.
+    private int verticalMove(int direction) {
+        int line = lines.lineOfOffset(caret);
+        int start = lines.lineStart(line);
+        int[] breaks = breaksOf(line);
+        int row = rowOf(breaks, caret - start);
+        int rowStart = row == 0 ? 0 : breaks[row - 1];
+        int x = WrapLayout.LEFT_MARGIN;
+        for (int i = start + rowStart; i < caret; i += 1) {
+            x += glyphs.width(store.charAt(i), font);
+        }
+
+        row += direction;
+        if (row < 0) {
+            if (line == 0) {
+                return 0;
+            }
+            line -= 1;
+            row = breaksOf(line).length;
+        } else if (row > breaks.length) {
+            if (line == lines.lineCount() - 1) {
+                return store.length();
+            }
+            line += 1;
+            row = 0;
+        }
+        return offsetInRow(line, row, x);
+    }
+
+    // Return the text offset closest to the point (x, y) in view coordinates.
+    private int offsetAt(double x, double y) {
+        int target = (int) (y / glyphs.lineHeight(font));
+        int line = topLine;
+        int row = topRow;
+        while (target > 0) {
+            if (row < breaksOf(line).length) {
+                row += 1;
+            } else if (line < lines.lineCount() - 1) {
+                line += 1;
+                row = 0;
+            } else {
+                return store.length();
+            }
+            target -= 1;
+        }
+        return offsetInRow(line, row, x);
+    }
+
+    private int offsetInRow(int line, int row, double x) {
+        int[] breaks = breaksOf(line);
+        int start = lines.lineStart(line);
+        int rowStart = row == 0 ? 0 : breaks[row - 1];
+        int rowEnd = row < breaks.length ? breaks[row] : contentLength(line);
+        int xPos = WrapLayout.LEFT_MARGIN;
+        for (int i = rowStart; i < rowEnd; i += 1) {
+            int w = glyphs.width(store.charAt(start + i), font);
+            // Stop at the character whose middle is right of x.
+            if (xPos + w / 2.0 > x) {
+                return start + i;
+            }
+            xPos += w;
+        }
+        // A wrapped row ends before the first character of the next row.
+        return start + (row < breaks.length ? rowEnd - 1 : rowEnd);
+    }
+
+    private int rowOf(int[] breaks, int local) {
+        int row = 0;
+        while (row < breaks.length && breaks[row] <= local) {
+            row += 1;
+        }
+        return row;
+    }
+
+    // Return the wrap points of a line, wrapping it if it is not cached.
+    private int[] breaksOf(int line) {
+        int[] breaks = layouts.get(line);
+        if (breaks == null) {
+            int start = lines.lineStart(line);
+            int length = contentLength(line);
+            if (length > lineChars.length) {
+                lineChars = new char[length * 2];
+                lineWidths = new int[length * 2];
+            }
+            store.getChars(start, start + length, lineChars, 0);
+            for (int i = 0; i < length; i += 1) {
+                lineWidths[i] = glyphs.width(lineChars[i], font);
+            }
+            breaks = WrapLayout.wrap(lineChars, lineWidths, length, maxLineWidth);
+            layouts.put(line, breaks);
+        }
+        return breaks;
+    }
+
+    // The length of a line without its line break.
+    private int contentLength(int line) {
+        int length = lines.lineLength(line);
+        if (line < lines.lineCount() - 1) {
+            length -= 1;
+        }
+        return length;
+    }
+
+    // Drop the cached layout of the edited line and renumber the lines after it.
+    private void invalidate(int line, int lineDelta) {
+        layouts.remove(line);
+        if (lineDelta == 0) {
+            return;
+        }
+        ArrayList<Map.Entry<Integer, int[]>> kept = new ArrayList<>();
+        Iterator<Map.Entry<Integer, int[]>> it = layouts.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, int[]> e = it.next();
+            if (e.getKey() > line) {
+                it.remove();
+                // Lines joined into the edited one are gone.
+                if (e.getKey() > line - lineDelta) {
+                    kept.add(e);
+                }
+            }
+        }
+        for (Map.Entry<Integer, int[]> e : kept) {
+            layouts.put(e.getKey() + lineDelta, e.getValue());
+        }
+    }
+
+    private Text rowText(int i) {
+        if (i == rows.size()) {
+            Text t = new Text();
+            t.setTextOrigin(VPos.TOP);
+            rows.add(t);
+            viewRoot.getChildren().add(viewRoot.getChildren().size() - 1, t);
+        }
+        Text t = rows.get(i);
+        t.setVisible(true);
+        return t;
+    }
+
+    private static int countLineBreaks(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i += 1) {
+            if (s.charAt(i) == '\n') {
+                n += 1;
+            }
+        }
+        return n;
+    }
+}
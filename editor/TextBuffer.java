@@ -1,19 +1,23 @@
 package editor;
 
 import javafx.scene.text.Text;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 /** The data structure to store the text content. */
 public class TextBuffer {
+    public static final String NEWLINE = System.getProperty("line.separator");
+
     private Node sentinel;
     private Node currentNode;
     private int currentPos;
     private int size;
 
-    // Record the current line height for the first node in current line.
-    private HashMap<Integer, Node> linesNode;
-    private HashMap<Integer, Integer> linesPos;
+    // Plain characters and logical line lengths, shared by every view of this buffer.
+    private TextStore store;
+    private LineIndex lines;
+    private ArrayList<BufferListener> listeners;
 
     public class Node {
         public Node prev, next;
@@ -33,8 +37,9 @@ public class TextBuffer {
         currentNode = sentinel;
         size = 0;
         currentPos = 0;
-        linesNode = new HashMap<>();
-        linesPos = new HashMap<>();
+        store = new TextStore();
+        lines = new LineIndex();
+        listeners = new ArrayList<>();
     }
 
     public class TextBuffIterator implements Iterator<Text> {
@@ -96,6 +101,7 @@ public class TextBuffer {
     }
 
     public void add(Text t) {
+        int offset = currentPos;
         if (size == currentPos) {
             addLast(t);
         } else {
@@ -105,6 +111,14 @@ public class TextBuffer {
             currentNode = currentNode.prev;
             size += 1;
         }
+        char c = charOf(t);
+        int line = lines.lineOfOffset(offset);
+        store.insert(offset, c);
+        lines.insert(offset, c);
+        String s = String.valueOf(c);
+        for (BufferListener l : listeners) {
+            l.inserted(offset, s, line);
+        }
     }
 
     public void addLast(Text t) {
@@ -123,11 +137,83 @@ public class TextBuffer {
             currentNode.prev = removeNode.prev;
             size -= 1;
             currentPos -= 1;
+
+            char c = store.charAt(currentPos);
+            int line = lines.lineOfOffset(currentPos);
+            store.delete(currentPos, 1);
+            lines.remove(currentPos, c);
+            String s = String.valueOf(c);
+            for (BufferListener l : listeners) {
+                l.removed(currentPos, s, line);
+            }
             return removeNode.text;
         }
         return null;
     }
 
+    /** Insert all of the Text nodes at pos, telling the listeners once; the current position becomes pos. */
+    public void insertAll(int pos, List<Text> texts) {
+        if (texts.isEmpty()) {
+            return;
+        }
+        Node next = nodeAt(pos);
+        Node prev = next.prev;
+        Node first = null;
+        char[] chars = new char[texts.size()];
+        for (int i = 0; i < chars.length; i += 1) {
+            Text t = texts.get(i);
+            Node n = new Node(prev, t, next);
+            prev.next = n;
+            prev = n;
+            if (first == null) {
+                first = n;
+            }
+            chars[i] = charOf(t);
+        }
+        next.prev = prev;
+        size += chars.length;
+        currentNode = first;
+        currentPos = pos;
+
+        String s = new String(chars);
+        int line = lines.lineOfOffset(pos);
+        store.insert(pos, s);
+        lines.insert(pos, s);
+        for (BufferListener l : listeners) {
+            l.inserted(pos, s, line);
+        }
+    }
+
+    /** Remove the characters in [start, end) and return their Text nodes, telling the listeners once. */
+    public ArrayList<Text> removeRange(int start, int end) {
+        ArrayList<Text> removed = new ArrayList<>();
+        if (start >= end) {
+            return removed;
+        }
+        Node first = nodeAt(start);
+        Node n = first;
+        for (int i = start; i < end; i += 1) {
+            removed.add(n.text);
+            n = n.next;
+        }
+        first.prev.next = n;
+        n.prev = first.prev;
+        size -= end - start;
+        currentNode = n;
+        currentPos = start;
+
+        String s = store.substring(start, end);
+        int line = lines.lineOfOffset(start);
+        store.delete(start, end - start);
+        for (int i = 0; i < s.length(); i += 1) {
+            lines.remove(start, s.charAt(i));
+        }
+        for (BufferListener l : listeners) {
+            l.removed(start, s, line);
+        }
+        return removed;
+    }
+
     public void moveLeft() {
         if (currentPos > 0) {
             currentNode = currentNode.prev;
@@ -142,23 +228,68 @@ public class TextBuffer {
         }
     }
 
-    public void recordLine(int y, int pos) {
-        if (pos < size &&  pos >= 0) {
-            if (linesNode.containsKey(y)) {
-                linesNode.remove(y);
-            }
-            Node n = getNode(pos);
-            linesNode.put(y, n);
-            linesPos.put(y, pos);
+    /** Move the current position to pos, walking from whichever known node is closest. */
+    public void moveTo(int pos) {
+        currentNode = nodeAt(pos);
+        currentPos = pos;
+    }
+
+    /** Return the node at pos, or the sentinel when pos is the end of the buffer. */
+    public Node nodeAt(int pos) {
+        Node p;
+        int i;
+        if (Math.abs(pos - currentPos) < Math.min(pos, size - pos)) {
+            p = currentNode;
+            i = currentPos;
+        } else if (pos <= size - pos) {
+            p = sentinel.next;
+            i = 0;
+        } else {
+            p = sentinel;
+            i = size;
+        }
+        while (i < pos) {
+            p = p.next;
+            i += 1;
+        }
+        while (i > pos) {
+            p = p.prev;
+            i -= 1;
+        }
+        return p;
+    }
+
+    public void addListener(BufferListener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(BufferListener l) {
+        listeners.remove(l);
+    }
+
+    public TextStore getTextStore() {
+        return store;
+    }
+
+    public LineIndex getLineIndex() {
+        return lines;
+    }
+
+    /** The character a Text node holds in the plain text store; a line separator is stored as '\n'. */
+    public static char charOf(Text t) {
+        String s = t.getText();
+        if (s.equals(NEWLINE) || s.equals("\n")) {
+            return '\n';
         }
+        return s.isEmpty() ? ' ' : s.charAt(0);
     }
 
-    public Node getLineNode(int y) {
-        return linesNode.get(y);
+    public static boolean isNewline(Text t) {
+        return t.getText().equals(NEWLINE);
     }
 
-    public int getLinePos(int y) {
-        return linesPos.get(y);
+    public Node getFirstNode() {
+        return sentinel.next;
     }
 
     public Text getFirst() {
@@ -205,12 +336,7 @@ public class TextBuffer {
         if (pos < 0 || pos > size - 1) {
             return null;
         }
-        Node p = sentinel.next;
-        while (pos > 0) {
-            p = p.next;
-            pos -= 1;
-        }
-        return p;
+        return nodeAt(pos);
     }
 
     public int size() {
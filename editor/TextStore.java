@@ -0,0 +1,119 @@
+package editor;
+
+/**
+ * A gap buffer holding the plain characters of the document.
+ * It is shared by every view, so reading a line never has to walk the linked list of Text nodes.
+ */
+public class TextStore implements CharSequence {
+    private char[] buf;
+    private int gapStart;
+    private int gapEnd;
+
+    public TextStore() {
+        this(64);
+    }
+
+    public TextStore(int capacity) {
+        buf = new char[Math.max(16, capacity)];
+        gapStart = 0;
+        gapEnd = buf.length;
+    }
+
+    @Override
+    public int length() {
+        return buf.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    public char charAt(int pos) {
+        if (pos < gapStart) {
+            return buf[pos];
+        }
+        return buf[pos + gapEnd - gapStart];
+    }
+
+    /** Return how many characters fit before the buffer has to grow. */
+    public int capacity() {
+        return buf.length;
+    }
+
+    public void insert(int pos, char c) {
+        moveGap(pos);
+        ensureGap(1);
+        buf[gapStart] = c;
+        gapStart += 1;
+    }
+
+    public void insert(int pos, CharSequence s) {
+        int n = s.length();
+        moveGap(pos);
+        ensureGap(n);
+        for (int i = 0; i < n; i += 1) {
+            buf[gapStart + i] = s.charAt(i);
+        }
+        gapStart += n;
+    }
+
+    public void delete(int pos, int length) {
+        moveGap(pos);
+        gapEnd += length;
+    }
+
+    /** Copy the characters in [start, end) into dst, beginning at dstBegin. */
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        int gap = gapEnd - gapStart;
+        if (end <= gapStart) {
+            System.arraycopy(buf, start, dst, dstBegin, end - start);
+        } else if (start >= gapStart) {
+            System.arraycopy(buf, start + gap, dst, dstBegin, end - start);
+        } else {
+            int before = gapStart - start;
+            System.arraycopy(buf, start, dst, dstBegin, before);
+            System.arraycopy(buf, gapEnd, dst, dstBegin + before, end - gapStart);
+        }
+    }
+
+    public String substring(int start, int end) {
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return new String(chars);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+
+    // Move the gap so that it starts at pos, shifting only the characters in between.
+    private void moveGap(int pos) {
+        if (pos < gapStart) {
+            int n = gapStart - pos;
+            System.arraycopy(buf, pos, buf, gapEnd - n, n);
+            gapStart -= n;
+            gapEnd -= n;
+        } else if (pos > gapStart) {
+            int n = pos - gapStart;
+            System.arraycopy(buf, gapEnd, buf, gapStart, n);
+            gapStart += n;
+            gapEnd += n;
+        }
+    }
+
+    private void ensureGap(int n) {
+        if (gapEnd - gapStart >= n) {
+            return;
+        }
+        int tail = buf.length - gapEnd;
+        int newLength = Math.max(buf.length * 2, length() + n + 16);
+        char[] newBuf = new char[newLength];
+        System.arraycopy(buf, 0, newBuf, 0, gapStart);
+        System.arraycopy(buf, gapEnd, newBuf, newLength - tail, tail);
+        gapEnd = newLength - tail;
+        buf = newBuf;
+    }
+}
@@ -0,0 +1,254 @@
+package editor;
+
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
+import javafx.scene.text.Font;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Snapshots of blocks of logical lines, shown instead of the Text nodes while the window scrolls.
+ * A tile is only reused for the same font, width and block version; an edit bumps the version of
+ * the block it touched, and a new or removed line break also of every block after it, since their
+ * lines moved. Once scrolling stops for a moment the live Text nodes come back.
+ * The least recently shown tiles are dropped when the cache grows past its memory budget.
+ */
+public class TileCache implements BufferListener {
+    // Logical lines per tile.
+    private static final int BLOCK_LINES = 32;
+    // Taller tiles would be too large for one texture; such blocks are never cached.
+    private static final int MAX_TILE_HEIGHT = 4096;
+    // Switch back to the Text nodes after this long without scrolling.
+    private static final long IDLE_NANOS = 150_000_000L;
+
+    private static class Tile {
+        WritableImage image;
+        Font font;
+        int width;
+        int version;
+        long bytes;
+    }
+
+    private Render render;
+    private Group textRoot;
+    private Node[] overlays;
+    private LineIndex lines;
+
+    private Group tileRoot;
+    private ArrayList<ImageView> views;
+    private LinkedHashMap<Integer, Tile> tiles;
+    private int[] blockVersions;
+    private long budget;
+    private long bytesUsed;
+
+    private boolean enabled;
+    private boolean showing;
+    private long lastScroll;
+    private AnimationTimer idleTimer;
+
+    /** overlays are children of textRoot, like the cursor, that must not be baked into tiles. */
+    public TileCache(TextBuffer text, Render render, Group textRoot, long budget, Node... overlays) {
+        this.render = render;
+        this.textRoot = textRoot;
+        this.overlays = overlays;
+        this.lines = text.getLineIndex();
+        this.budget = budget;
+        tileRoot = new Group();
+        tileRoot.setMouseTransparent(true);
+        tileRoot.setVisible(false);
+        views = new ArrayList<>();
+        tiles = new LinkedHashMap<>(16, 0.75f, true);
+        blockVersions = new int[16];
+        idleTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (now - lastScroll > IDLE_NANOS) {
+                    hide();
+                }
+            }
+        };
+        text.addListener(this);
+    }
+
+    public Group getRoot() {
+        return tileRoot;
+    }
+
+    /** Return the memory the tiles take, in bytes. */
+    public long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            hide();
+            tiles.clear();
+            bytesUsed = 0;
+        }
+    }
+
+    /** The window scrolled: draw the visible blocks from tiles, making the missing ones first. */
+    public void scrolled() {
+        if (!enabled) {
+            return;
+        }
+        lastScroll = System.nanoTime();
+        Font font = render.getFont();
+        int width = render.getContentWidth() + 2 * WrapLayout.LEFT_MARGIN;
+        double scroll = render.getScrollY();
+        int firstBlock = render.getTopLine() / BLOCK_LINES;
+        int lastBlock = render.getBottomLine() / BLOCK_LINES;
+
+        int used = 0;
+        for (int block = firstBlock; block <= lastBlock; block += 1) {
+            if (blockHeight(block) == 0) {
+                // Folded away entirely.
+                continue;
+            }
+            Tile tile = tiles.get(block);
+            if (tile == null || tile.font != font || tile.width != width || tile.version != version(block)) {
+                tile = snapshot(block, font, width);
+                if (tile == null) {
+                    // This block can't be a tile, keep showing the Text nodes.
+                    hide();
+                    return;
+                }
+            }
+            if (used == views.size()) {
+                ImageView view = new ImageView();
+                views.add(view);
+                tileRoot.getChildren().add(view);
+            }
+            ImageView view = views.get(used);
+            used += 1;
+            view.setImage(tile.image);
+            view.setX(textRoot.getLayoutX());
+            view.setY(render.getLineY(block * BLOCK_LINES) - scroll);
+            view.setVisible(true);
+        }
+        for (int i = used; i < views.size(); i += 1) {
+            views.get(i).setVisible(false);
+        }
+        if (!showing) {
+            showing = true;
+            tileRoot.setVisible(true);
+            textRoot.setVisible(false);
+            idleTimer.start();
+        }
+    }
+
+    /** The lines from line on moved without an edit, as they do when a region is folded. */
+    public void layoutChanged(int line) {
+        invalidate(line, true);
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        invalidate(line, s.indexOf('\n') >= 0);
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        invalidate(line, s.indexOf('\n') >= 0);
+    }
+
+    // Bring the Text nodes back.
+    private void hide() {
+        if (showing) {
+            showing = false;
+            tileRoot.setVisible(false);
+            textRoot.setVisible(true);
+            idleTimer.stop();
+        }
+    }
+
+    private void invalidate(int line, boolean linesMoved) {
+        // An edit must show at once, not after the next pause in scrolling.
+        hide();
+        int block = line / BLOCK_LINES;
+        int last = block;
+        if (linesMoved) {
+            for (int cached : tiles.keySet()) {
+                last = Math.max(last, cached);
+            }
+        }
+        for (int b = block; b <= last; b += 1) {
+            bumpVersion(b);
+        }
+    }
+
+    private int version(int block) {
+        return block < blockVersions.length ? blockVersions[block] : 0;
+    }
+
+    private void bumpVersion(int block) {
+        if (block >= blockVersions.length) {
+            blockVersions = Arrays.copyOf(blockVersions, Math.max(block + 1, blockVersions.length * 2));
+        }
+        blockVersions[block] += 1;
+    }
+
+    // Render one block of lines into a new tile, or return null if it is too tall.
+    private Tile snapshot(int block, Font font, int width) {
+        int top = render.getLineY(block * BLOCK_LINES);
+        int height = blockHeight(block);
+        if (height <= 0 || height > MAX_TILE_HEIGHT) {
+            return null;
+        }
+
+        // The viewport is in the coordinates of textRoot's parent, so it includes the scroll offset.
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setViewport(new Rectangle2D(textRoot.getLayoutX(), textRoot.getLayoutY() + top, width, height));
+        boolean wasVisible = textRoot.isVisible();
+        textRoot.setVisible(true);
+        for (Node overlay : overlays) {
+            overlay.setVisible(false);
+        }
+        WritableImage image = textRoot.snapshot(parameters, null);
+        for (Node overlay : overlays) {
+            overlay.setVisible(true);
+        }
+        textRoot.setVisible(wasVisible);
+
+        Tile tile = new Tile();
+        tile.image = image;
+        tile.font = font;
+        tile.width = width;
+        tile.version = version(block);
+        tile.bytes = 4L * width * height;
+        Tile old = tiles.put(block, tile);
+        bytesUsed += tile.bytes - (old == null ? 0 : old.bytes);
+        evict();
+        return tile;
+    }
+
+    private int blockHeight(int block) {
+        int first = block * BLOCK_LINES;
+        int next = first + BLOCK_LINES;
+        int bottom = next < lines.lineCount() ? render.getLineY(next) : render.getContentHeight();
+        return bottom - render.getLineY(first);
+    }
+
+    // Drop the least recently shown tiles until the cache fits its budget again.
+    private void evict() {
+        Iterator<Map.Entry<Integer, Tile>> eldest = tiles.entrySet().iterator();
+        while (bytesUsed > budget && tiles.size() > 1 && eldest.hasNext()) {
+            bytesUsed -= eldest.next().getValue().bytes;
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package editor;
+
+import javafx.scene.text.Text;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Undo history kept in a sidecar file next to the text, so it survives closing the editor.
+ *
+ * The undo stack is the older entries kept here followed by the recent ones KeyEventHandler holds.
+ * Every save appends to the sidecar: how many entries of the previously saved stack were undone,
+ * the entries pushed since, and a fixed-size save record with the depth of the stack and the hash
+ * and length of the saved text. Runs of typed or deleted characters are written as one record of
+ * a position, a count and the characters; an edit made at several cursors at once is one record
+ * of its offsets and texts. Opening the file only reads the last save record and
+ * checks it against the text; the entries themselves are read the first time they are undone.
+ */
+public class UndoHistory {
+    private static final int MAGIC = 0x4544554e;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private static final int INSERTED = 1;
+    private static final int REMOVED = 2;
+    private static final int UNDONE = 3;
+    private static final int SAVED = 4;
+    private static final int BATCH = 5;
+    // kind, depth, hash, length and magic.
+    private static final int SAVE_RECORD_SIZE = 1 + 4 + 8 + 8 + 4;
+    // Rewrite the sidecar once it is this much bigger than the history it holds.
+    private static final int COMPACT_FACTOR = 4;
+    private static final long COMPACT_MIN_BYTES = 64 * 1024;
+
+    private Path path;
+    // The stack as of the last save to the sidecar, and whether the sidecar matches the text at all.
+    private boolean valid;
+    private int savedDepth;
+    // The older entries, read from the sidecar on first use; depth counts them even before that.
+    private ArrayList<Action> older;
+    private int depth;
+    // How many entries at the bottom of the whole stack are the same as in the sidecar.
+    private int shared;
+
+    public UndoHistory(Path file) {
+        Path absolute = file.toAbsolutePath();
+        path = absolute.resolveSibling("." + absolute.getFileName() + ".undo");
+        older = new ArrayList<>();
+    }
+
+    /** Use the history in the sidecar if it was saved with exactly this text. */
+    public void open(CharSequence content) {
+        valid = false;
+        savedDepth = 0;
+        depth = 0;
+        shared = 0;
+        older = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + SAVE_RECORD_SIZE) {
+                return;
+            }
+            ByteBuffer record = ByteBuffer.allocate(SAVE_RECORD_SIZE);
+            while (record.hasRemaining() && channel.read(record, size - SAVE_RECORD_SIZE + record.position()) > 0) {
+                // Keep reading until the record is complete.
+            }
+            record.flip();
+            int kind = record.get();
+            int savedStack = record.getInt();
+            long hash = record.getLong();
+            long length = record.getLong();
+            if (kind != SAVED || record.getInt() != MAGIC || length != content.length() || hash != hash(content)) {
+                return;
+            }
+            valid = true;
+            savedDepth = savedStack;
+            depth = savedStack;
+            shared = savedStack;
+            // Nothing is read yet; older stays empty until the first entry is needed.
+            older = null;
+        } catch (IOException e) {
+            System.out.println("Can't read the undo history " + path + "; exception was: " + e);
+        }
+    }
+
+    /** Forget everything, for text that was replaced from outside. */
+    public void clear() {
+        older = new ArrayList<>();
+        depth = 0;
+        shared = 0;
+    }
+
+    /** Keep an entry that dropped off the bottom of the recent entries. */
+    public void push(Action action) {
+        load();
+        older.add(action);
+        depth += 1;
+    }
+
+    /** Return how many older entries are in memory; none are until the first is needed. */
+    public int loadedEntries() {
+        return older == null ? 0 : older.size();
+    }
+
+    /** Return the newest older entry for undoing it, or null if there is none. */
+    public Action pop() {
+        if (depth == 0) {
+            return null;
+        }
+        load();
+        depth -= 1;
+        shared = Math.min(shared, depth);
+        return older.remove(depth);
+    }
+
+    /** The recent entries shrank to size by undoing. */
+    public void undone(int size) {
+        shared = Math.min(shared, depth + size);
+    }
+
+    /** Append what changed since the last save, for the text content that was just written. */
+    public void save(List<Action> recent, CharSequence content) {
+        try {
+            boolean rewrite = !valid || Files.notExists(path);
+            if (!rewrite && Files.size(path) > COMPACT_MIN_BYTES) {
+                // An entry takes about four bytes when it is part of a run.
+                long live = 4L * (depth + recent.size());
+                rewrite = Files.size(path) > COMPACT_FACTOR * live;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int from;
+            if (rewrite) {
+                load();
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                from = 0;
+            } else {
+                if (savedDepth > shared) {
+                    out.writeByte(UNDONE);
+                    InputRecorder.writeVarLong(out, savedDepth - shared);
+                }
+                from = shared;
+            }
+            // The entries above the shared ones, older first.
+            ArrayList<Action> added = new ArrayList<>();
+            for (int i = from; i < depth; i += 1) {
+                added.add(older.get(i));
+            }
+            for (int i = Math.max(0, from - depth); i < recent.size(); i += 1) {
+                added.add(recent.get(i));
+            }
+            writeEntries(out, added);
+            int stack = depth + recent.size();
+            out.writeByte(SAVED);
+            out.writeInt(stack);
+            out.writeLong(hash(content));
+            out.writeLong(content.length());
+            out.writeInt(MAGIC);
+            out.flush();
+
+            if (rewrite) {
+                // Write next to the sidecar and move it in place, so a crash never leaves half of it.
+                Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), "undo", ".tmp");
+                Files.write(temp, bytes.toByteArray());
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.write(path, bytes.toByteArray(), StandardOpenOption.APPEND);
+            }
+            valid = true;
+            savedDepth = stack;
+            shared = stack;
+        } catch (IOException e) {
+            System.out.println("Can't write the undo history " + path + "; exception was: " + e);
+        }
+    }
+
+    // Write the entries, joining runs of characters typed or deleted one after another.
+    private static void writeEntries(DataOutputStream out, List<Action> entries) throws IOException {
+        int i = 0;
+        while (i < entries.size()) {
+            Action first = entries.get(i);
+            if (first.isBatch()) {
+                // An edit at several cursors: the count, then every edit's offset, removed and inserted text.
+                out.writeByte(BATCH);
+                InputRecorder.writeVarLong(out, first.getOffsets().length);
+                for (int k = 0; k < first.getOffsets().length; k += 1) {
+                    InputRecorder.writeVarLong(out, first.getOffsets()[k]);
+                    writeString(out, first.getRemoved()[k]);
+                    writeString(out, first.getInserted()[k]);
+                }
+                i += 1;
+                continue;
+            }
+            boolean add = first.getAction();
+            int step = add ? 1 : -1;
+            int run = 1;
+            while (i + run < entries.size() && !entries.get(i + run).isBatch() && entries.get(i + run).getAction() == add
+                    && entries.get(i + run).getPosition() == first.getPosition() + run * step) {
+                run += 1;
+            }
+            out.writeByte(add ? INSERTED : REMOVED);
+            InputRecorder.writeVarLong(out, first.getPosition());
+            InputRecorder.writeVarLong(out, run);
+            for (int j = i; j < i + run; j += 1) {
+                InputRecorder.writeVarLong(out, TextBuffer.charOf(entries.get(j).getText()));
+            }
+            i += run;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        InputRecorder.writeVarLong(out, s.length());
+        for (int i = 0; i < s.length(); i += 1) {
+            InputRecorder.writeVarLong(out, s.charAt(i));
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = (int) InputRecorder.readVarLong(in);
+        StringBuilder s = new StringBuilder(length);
+        for (int i = 0; i < length; i += 1) {
+            s.append((char) InputRecorder.readVarLong(in));
+        }
+        return s.toString();
+    }
+
+    // Read the older entries from the sidecar, if that has not happened yet.
+    private void load() {
+        if (older != null) {
+            return;
+        }
+        older = new ArrayList<>(depth);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not an undo history");
+            }
+            while (true) {
+                int kind;
+                try {
+                    kind = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (kind == INSERTED || kind == REMOVED) {
+                    int position = (int) InputRecorder.readVarLong(in);
+                    int run = (int) InputRecorder.readVarLong(in);
+                    int step = kind == INSERTED ? 1 : -1;
+                    for (int i = 0; i < run; i += 1) {
+                        String c = String.valueOf((char) InputRecorder.readVarLong(in));
+                        Text t = new Text(c.equals("\n") ? TextBuffer.NEWLINE : c);
+                        older.add(new Action(kind == INSERTED, position + i * step, t));
+                    }
+                } else if (kind == BATCH) {
+                    int n = (int) InputRecorder.readVarLong(in);
+                    int[] offsets = new int[n];
+                    String[] removed = new String[n];
+                    String[] inserted = new String[n];
+                    for (int k = 0; k < n; k += 1) {
+                        offsets[k] = (int) InputRecorder.readVarLong(in);
+                        removed[k] = readString(in);
+                        inserted[k] = readString(in);
+                    }
+                    older.add(new Action(offsets, removed, inserted));
+                } else if (kind == UNDONE) {
+                    int count = (int) InputRecorder.readVarLong(in);
+                    for (int i = 0; i < count; i += 1) {
+                        older.remove(older.size() - 1);
+                    }
+                } else if (kind == SAVED) {
+                    in.readFully(new byte[SAVE_RECORD_SIZE - 1]);
+                } else {
+                    throw new IOException("unknown record " + kind);
+                }
+            }
+            if (older.size() != savedDepth) {
+                throw new IOException("expected " + savedDepth + " entries, found " + older.size());
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Can't read the undo history " + path + "; exception was: " + e);
+            older = new ArrayList<>();
+            depth = 0;
+            shared = 0;
+            valid = false;
+        }
+    }
+
+    // 64-bit FNV-1a over the characters of s.
+    private static long hash(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i += 1) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,134 @@
+package editor;
+
+import javafx.scene.Group;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * Arranges the primary render and any split views in the window, and tracks which view has focus.
+ * All views share one TextBuffer, one GlyphCache and (through the KeyEventHandler) one undo history.
+ */
+public class ViewManager {
+    private Group root;
+    private TextBuffer text;
+    private Render render;
+    private GlyphCache glyphs;
+
+    private ArrayList<SplitView> views;
+    // The split view with keyboard focus, or null when the primary view has it.
+    private SplitView focused;
+    private boolean sideBySide;
+    // The diff view covering the whole window, or null.
+    private DiffView diff;
+
+    private int windowWidth;
+    private int windowHeight;
+
+    public ViewManager(Group root, TextBuffer text, Render render, GlyphCache glyphs, int window_width, int window_height) {
+        this.root = root;
+        this.text = text;
+        this.render = render;
+        this.glyphs = glyphs;
+        windowWidth = window_width;
+        windowHeight = window_height;
+        views = new ArrayList<>();
+        sideBySide = true;
+    }
+
+    /** Open another view of the buffer, side by side or stacked, and give it focus. */
+    public void split(boolean sideBySide) {
+        this.sideBySide = sideBySide;
+        SplitView view = new SplitView(text, glyphs, render.getFont(), this);
+        views.add(view);
+        root.getChildren().add(view.getRoot());
+        focused = view;
+        arrange();
+    }
+
+    /** Close the split view that has focus; the primary view cannot be closed. */
+    public void closeFocused() {
+        if (focused == null) {
+            return;
+        }
+        focused.dispose();
+        root.getChildren().remove(focused.getRoot());
+        views.remove(focused);
+        focused = null;
+        arrange();
+    }
+
+    /** Compare the buffer with the file at other in a view covering the window; edits go to the primary view. */
+    public void openDiff(Path other) throws IOException {
+        DiffView view = new DiffView(text, render, glyphs, other, this);
+        closeDiff();
+        diff = view;
+        root.getChildren().add(diff.getRoot());
+        focused = null;
+        arrange();
+    }
+
+    public void closeDiff() {
+        if (diff == null) {
+            return;
+        }
+        diff.dispose();
+        root.getChildren().remove(diff.getRoot());
+        diff = null;
+    }
+
+    public DiffView getDiff() {
+        return diff;
+    }
+
+    public void focus(SplitView view) {
+        focused = view;
+    }
+
+    public SplitView getFocused() {
+        return focused;
+    }
+
+    public void updateFont(int newFontSize) {
+        render.updateFont(newFontSize);
+        render.renderAll();
+        for (SplitView view : views) {
+            view.setFont(render.getFont());
+        }
+        if (diff != null) {
+            diff.setFont(render.getFont());
+        }
+    }
+
+    public void updateWindowWidth(double width) {
+        windowWidth = (int) width;
+        arrange();
+    }
+
+    public void updateWindowHeight(double height) {
+        windowHeight = (int) height;
+        arrange();
+    }
+
+    // Give every view an equal share of the window, the primary view first.
+    private void arrange() {
+        if (diff != null) {
+            diff.setBounds(windowWidth, windowHeight);
+        }
+        int panes = views.size() + 1;
+        if (sideBySide) {
+            int paneWidth = windowWidth / panes;
+            render.updateWindowSize(paneWidth, windowHeight);
+            for (int i = 0; i < views.size(); i += 1) {
+                views.get(i).setBounds(paneWidth * (i + 1), 0, paneWidth, windowHeight);
+            }
+        } else {
+            int paneHeight = windowHeight / panes;
+            render.updateWindowSize(windowWidth, paneHeight);
+            for (int i = 0; i < views.size(); i += 1) {
+                views.get(i).setBounds(0, paneHeight * (i + 1), windowWidth, paneHeight);
+            }
+        }
+    }
+}
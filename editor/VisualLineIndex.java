@@ -0,0 +1,122 @@
+package editor;
+
+/**
+ * The wrapped layout of every logical line in one view, kept in an implicit treap summed by visual rows.
+ * Mapping a row (and so a y position) to its logical line, or a line to its first row, is O(log n).
+ * A folded line has no rows, so the mapping steps over folded regions without visiting them.
+ */
+public class VisualLineIndex {
+    // A line's weight is its number of rows.
+    private ImplicitTreap<Layout> lines;
+
+    /** How one logical line is wrapped: row breaks, the x of each character and the first node of each row. */
+    public static class Layout {
+        public static final Layout EMPTY = new Layout(0, new int[0], new int[0], new TextBuffer.Node[1]);
+        // A line hidden in a fold: not wrapped, not placed and taking no rows.
+        public static final Layout FOLDED = new Layout(0, new int[0], new int[0], new TextBuffer.Node[1]);
+
+        public final int length;
+        public final int[] breaks;
+        public final int[] xs;
+        public final TextBuffer.Node[] rowNodes;
+
+        public Layout(int length, int[] breaks, int[] xs, TextBuffer.Node[] rowNodes) {
+            this.length = length;
+            this.breaks = breaks;
+            this.xs = xs;
+            this.rowNodes = rowNodes;
+        }
+
+        public int rows() {
+            return this == FOLDED ? 0 : breaks.length + 1;
+        }
+
+        public int rowStart(int row) {
+            return row == 0 ? 0 : breaks[row - 1];
+        }
+
+        public int rowEnd(int row) {
+            return row < breaks.length ? breaks[row] : length;
+        }
+
+        /** Return the row holding the character at local position i. */
+        public int rowOf(int i) {
+            int lo = 0;
+            int hi = breaks.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (breaks[mid] <= i) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    public VisualLineIndex() {
+        lines = new ImplicitTreap<>();
+        clear();
+    }
+
+    /** Reset to a single empty line. */
+    public void clear() {
+        lines.clear();
+        lines.append(Layout.EMPTY, 0);
+    }
+
+    /** Start a full rebuild; lines are then added in order with append. */
+    public void clearAll() {
+        lines.clear();
+    }
+
+    public void append(Layout layout) {
+        lines.append(layout, layout.rows());
+    }
+
+    public int lineCount() {
+        return lines.size();
+    }
+
+    public int rowCount() {
+        return lines.totalWeight();
+    }
+
+    public Layout get(int line) {
+        Layout layout = lines.get(line);
+        return layout == null ? Layout.EMPTY : layout;
+    }
+
+    public void set(int line, Layout layout) {
+        if (line >= 0 && line < lines.size()) {
+            lines.set(line, layout, layout.rows());
+        }
+    }
+
+    /** Give every line from from to to the same layout, in one pass over just those lines. */
+    public void fill(int from, int to, Layout layout) {
+        lines.fill(from, to, layout, layout.rows());
+    }
+
+    public void insertLine(int line) {
+        lines.insert(line, Layout.EMPTY, Layout.EMPTY.rows());
+    }
+
+    public void removeLine(int line) {
+        lines.remove(line);
+    }
+
+    /** Return the logical line that holds the visual row, clamped to the document. */
+    public int lineOfRow(int row) {
+        if (row >= lines.totalWeight()) {
+            return lines.size() - 1;
+        }
+        return lines.indexOfWeight(Math.max(0, row));
+    }
+
+    /** Return the first visual row of line. */
+    public int firstRow(int line) {
+        return lines.weightBefore(line);
+    }
+}
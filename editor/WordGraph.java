@@ -0,0 +1,215 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A word list stored as a minimal acyclic automaton (a DAWG): words share their common prefixes
+ * and suffixes, so a list of a few hundred thousand words takes a few megabytes at most.
+ * It is built in one pass over the sorted words, merging every finished state with an equal one
+ * (Daciuk et al.), and then packed into flat arrays that are searched one character at a time.
+ */
+public class WordGraph {
+    // The edges of state s are edgeStart[s] to edgeStart[s + 1], sorted by label.
+    private int[] edgeStart;
+    private char[] labels;
+    private int[] targets;
+    private boolean[] accepting;
+    private int wordCount;
+
+    /** A state while the graph is being built. */
+    private static class State {
+        char[] labels = new char[0];
+        State[] targets = new State[0];
+        boolean accepting;
+        int id = -1;
+
+        State lastChild() {
+            return targets.length == 0 ? null : targets[targets.length - 1];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            State other = (State) o;
+            if (accepting != other.accepting || !Arrays.equals(labels, other.labels)) {
+                return false;
+            }
+            // Children are already merged, so equal children are the same object.
+            for (int i = 0; i < targets.length; i += 1) {
+                if (targets[i] != other.targets[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = accepting ? 1 : 0;
+            for (int i = 0; i < labels.length; i += 1) {
+                h = h * 31 + labels[i];
+                h = h * 31 + System.identityHashCode(targets[i]);
+            }
+            return h;
+        }
+    }
+
+    private WordGraph() {
+    }
+
+    /** Read a word list with one word per line. */
+    public static WordGraph read(Path path) throws IOException {
+        TextStore content = new TextStore();
+        FileIO.read(path, Charset.defaultCharset(), content);
+        ArrayList<String> words = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= content.length(); i += 1) {
+            if (i == content.length() || content.charAt(i) == '\n') {
+                String word = content.substring(start, i).trim();
+                if (!word.isEmpty()) {
+                    words.add(word);
+                }
+                start = i + 1;
+            }
+        }
+        return build(words);
+    }
+
+    /** Build the graph of words, which may be in any order and contain duplicates. */
+    public static WordGraph build(ArrayList<String> words) {
+        String[] sorted = words.toArray(new String[0]);
+        Arrays.sort(sorted);
+        HashMap<State, State> register = new HashMap<>();
+        State root = new State();
+        String previous = "";
+        int count = 0;
+        for (String word : sorted) {
+            if (word.equals(previous)) {
+                continue;
+            }
+            // Follow the prefix shared with the previous word; everything after it is finished.
+            int prefix = 0;
+            State state = root;
+            while (prefix < word.length() && prefix < previous.length()
+                    && word.charAt(prefix) == previous.charAt(prefix)) {
+                state = state.lastChild();
+                prefix += 1;
+            }
+            if (state.lastChild() != null) {
+                replaceOrRegister(state, register);
+            }
+            for (int i = prefix; i < word.length(); i += 1) {
+                State next = new State();
+                state.labels = Arrays.copyOf(state.labels, state.labels.length + 1);
+                state.targets = Arrays.copyOf(state.targets, state.targets.length + 1);
+                state.labels[state.labels.length - 1] = word.charAt(i);
+                state.targets[state.targets.length - 1] = next;
+                state = next;
+            }
+            state.accepting = true;
+            previous = word;
+            count += 1;
+        }
+        // An empty list leaves the root without children and the graph without words.
+        if (root.lastChild() != null) {
+            replaceOrRegister(root, register);
+        }
+
+        WordGraph graph = new WordGraph();
+        graph.wordCount = count;
+        graph.pack(root, register.size() + 1);
+        return graph;
+    }
+
+    // Merge the last child of state, after its own children, with an equal state if there is one.
+    private static void replaceOrRegister(State state, HashMap<State, State> register) {
+        State child = state.lastChild();
+        if (child.lastChild() != null) {
+            replaceOrRegister(child, register);
+        }
+        State equal = register.get(child);
+        if (equal != null) {
+            state.targets[state.targets.length - 1] = equal;
+        } else {
+            register.put(child, child);
+        }
+    }
+
+    // Number the states breadth first from root and copy their edges into the flat arrays.
+    private void pack(State root, int stateCount) {
+        ArrayList<State> order = new ArrayList<>(stateCount);
+        root.id = 0;
+        order.add(root);
+        int edgeCount = 0;
+        for (int i = 0; i < order.size(); i += 1) {
+            State state = order.get(i);
+            edgeCount += state.labels.length;
+            for (State target : state.targets) {
+                if (target.id < 0) {
+                    target.id = order.size();
+                    order.add(target);
+                }
+            }
+        }
+        edgeStart = new int[order.size() + 1];
+        labels = new char[edgeCount];
+        targets = new int[edgeCount];
+        accepting = new boolean[order.size()];
+        int edge = 0;
+        for (int i = 0; i < order.size(); i += 1) {
+            State state = order.get(i);
+            edgeStart[i] = edge;
+            accepting[i] = state.accepting;
+            for (int j = 0; j < state.labels.length; j += 1) {
+                labels[edge] = state.labels[j];
+                targets[edge] = state.targets[j].id;
+                edge += 1;
+            }
+        }
+        edgeStart[order.size()] = edge;
+    }
+
+    /** Return true if the characters of s from start to end are a word of the list. */
+    public boolean contains(CharSequence s, int start, int end) {
+        int state = 0;
+        for (int i = start; i < end; i += 1) {
+            char c = s.charAt(i);
+            // Binary search the sorted labels of the state's edges.
+            int lo = edgeStart[state];
+            int hi = edgeStart[state + 1] - 1;
+            int next = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (labels[mid] < c) {
+                    lo = mid + 1;
+                } else if (labels[mid] > c) {
+                    hi = mid - 1;
+                } else {
+                    next = targets[mid];
+                    break;
+                }
+            }
+            if (next < 0) {
+                return false;
+            }
+            state = next;
+        }
+        return accepting[state];
+    }
+
+    public boolean contains(CharSequence s) {
+        return contains(s, 0, s.length());
+    }
+
+    public int wordCount() {
+        return wordCount;
+    }
+
+    public int stateCount() {
+        return accepting.length;
+    }
+}
@@ -0,0 +1,265 @@
+package editor;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Every word of the buffer with how often it occurs, sorted so the words with a prefix are one
+ * range of the index. The whole index is built on a background thread when a file is loaded or a
+ * large part of the text is replaced; after that an edit only counts the words around it again.
+ * Completions of a prefix are ranked by how often they occur and how close the nearest one is to
+ * the cursor.
+ */
+public class WordIndex implements BufferListener {
+    // Edits longer than this rebuild the index in the background instead of updating it in place.
+    private static final int REBUILD_CHARS = 16 * 1024;
+    // Words this long are taken to be data, not names anyone types.
+    private static final int MAX_WORD = 64;
+    // How far from the cursor to look for nearby words.
+    private static final int NEAR_CHARS = 8 * 1024;
+
+    private static final ExecutorService builder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "word-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private TextStore store;
+    // The number of times every word occurs, or null until the first build is done.
+    private TreeMap<String, Integer> counts;
+    // Text counted in or out while a build was running, applied to its result; and which build counts.
+    private ArrayList<String> pendingTexts;
+    private ArrayList<Integer> pendingDeltas;
+    private int generation;
+    private boolean building;
+
+    public WordIndex(TextBuffer text) {
+        this.store = text.getTextStore();
+        pendingTexts = new ArrayList<>();
+        pendingDeltas = new ArrayList<>();
+        text.addListener(this);
+        rebuild();
+    }
+
+    /** Return true once the index holds every word of the buffer. */
+    public boolean isReady() {
+        return counts != null && !building;
+    }
+
+    /**
+     * Return at most limit words that start with prefix and are longer than it, best first.
+     * The word the cursor at caret is in does not count itself.
+     */
+    public ArrayList<String> complete(String prefix, int caret, int limit) {
+        ArrayList<String> result = new ArrayList<>();
+        if (counts == null || prefix.isEmpty()) {
+            return result;
+        }
+        NavigableMap<String, Integer> range = counts.subMap(prefix, false, prefix + Character.MAX_VALUE, false);
+        if (range.isEmpty()) {
+            return result;
+        }
+        String own = wordAt(caret);
+        HashMap<String, Integer> near = nearby(prefix, caret);
+        // Keep the best limit words in order, scored by the bit length of the count plus up to 8 for being close by.
+        String[] best = new String[limit];
+        double[] scores = new double[limit];
+        int found = 0;
+        for (Map.Entry<String, Integer> entry : range.entrySet()) {
+            String word = entry.getKey();
+            int count = entry.getValue() - (word.equals(own) ? 1 : 0);
+            if (count <= 0) {
+                continue;
+            }
+            Integer distance = near.get(word);
+            double score = 32 - Integer.numberOfLeadingZeros(count);
+            if (distance != null) {
+                score += 8.0 * (NEAR_CHARS - distance) / NEAR_CHARS;
+            }
+            if (found == limit && score <= scores[limit - 1]) {
+                continue;
+            }
+            int i = Math.min(found, limit - 1);
+            while (i > 0 && scores[i - 1] < score) {
+                best[i] = best[i - 1];
+                scores[i] = scores[i - 1];
+                i -= 1;
+            }
+            best[i] = word;
+            scores[i] = score;
+            found = Math.min(found + 1, limit);
+        }
+        for (int i = 0; i < found; i += 1) {
+            result.add(best[i]);
+        }
+        return result;
+    }
+
+    /** Return the part of the word in front of pos, up to pos; empty if pos does not follow a word character. */
+    public String prefixAt(int pos) {
+        int start = pos;
+        while (start > 0 && isWordChar(store.charAt(start - 1))) {
+            start -= 1;
+        }
+        return store.substring(start, pos);
+    }
+
+    @Override
+    public void inserted(int offset, String s, int line) {
+        if (s.length() > REBUILD_CHARS) {
+            rebuild();
+            return;
+        }
+        // The words around the insertion as they were without it, and as they are now.
+        int start = wordStart(offset);
+        int end = wordEnd(offset + s.length());
+        count(store.substring(start, offset) + store.substring(offset + s.length(), end), -1);
+        count(store.substring(start, end), 1);
+    }
+
+    @Override
+    public void removed(int offset, String s, int line) {
+        if (s.length() > REBUILD_CHARS) {
+            rebuild();
+            return;
+        }
+        int start = wordStart(offset);
+        int end = wordEnd(offset);
+        count(store.substring(start, offset) + s + store.substring(offset, end), -1);
+        count(store.substring(start, end), 1);
+    }
+
+    // Count every word of the text again on the builder thread, from a copy taken now.
+    private void rebuild() {
+        generation += 1;
+        int build = generation;
+        building = true;
+        pendingTexts.clear();
+        pendingDeltas.clear();
+        String snapshot = store.toString();
+        builder.execute(() -> {
+            TreeMap<String, Integer> built = new TreeMap<>();
+            addWords(snapshot, built, 1);
+            Platform.runLater(() -> {
+                if (build != generation) {
+                    return;
+                }
+                for (int i = 0; i < pendingTexts.size(); i += 1) {
+                    addWords(pendingTexts.get(i), built, pendingDeltas.get(i));
+                }
+                pendingTexts.clear();
+                pendingDeltas.clear();
+                counts = built;
+                building = false;
+            });
+        });
+    }
+
+    // Add delta to the count of every word of s, now or once the running build is done.
+    private void count(String s, int delta) {
+        if (building) {
+            pendingTexts.add(s);
+            pendingDeltas.add(delta);
+        } else if (counts != null) {
+            addWords(s, counts, delta);
+        }
+    }
+
+    private static void addWords(String s, TreeMap<String, Integer> counts, int delta) {
+        int i = 0;
+        while (i < s.length()) {
+            int end = i;
+            while (end < s.length() && isWordChar(s.charAt(end))) {
+                end += 1;
+            }
+            if (isWord(s, i, end)) {
+                add(counts, s.substring(i, end), delta);
+            }
+            i = end + 1;
+        }
+    }
+
+    private static void add(TreeMap<String, Integer> counts, String word, int delta) {
+        int count = counts.getOrDefault(word, 0) + delta;
+        if (count > 0) {
+            counts.put(word, count);
+        } else {
+            counts.remove(word);
+        }
+    }
+
+    // A run of word characters is indexed if it is at least two long, not too long and not a number.
+    private static boolean isWord(String s, int start, int end) {
+        return end - start >= 2 && end - start <= MAX_WORD && !Character.isDigit(s.charAt(start));
+    }
+
+    // The nearest distance from caret to every word starting with prefix within NEAR_CHARS of it.
+    private HashMap<String, Integer> nearby(String prefix, int caret) {
+        HashMap<String, Integer> near = new HashMap<>();
+        int from = wordStart(Math.max(0, caret - NEAR_CHARS));
+        int to = Math.min(store.length(), caret + NEAR_CHARS);
+        int i = from;
+        while (i < to) {
+            if (!isWordChar(store.charAt(i))) {
+                i += 1;
+                continue;
+            }
+            int end = i;
+            while (end < store.length() && isWordChar(store.charAt(end))) {
+                end += 1;
+            }
+            // Only words that start with prefix are taken out of the store.
+            if (end - i > prefix.length() && (caret < i || caret > end) && startsWith(i, prefix)) {
+                String word = store.substring(i, end);
+                int distance = Math.min(Math.abs(caret - i), Math.abs(caret - end));
+                Integer known = near.get(word);
+                if (known == null || distance < known) {
+                    near.put(word, distance);
+                }
+            }
+            i = end;
+        }
+        return near;
+    }
+
+    private boolean startsWith(int pos, String prefix) {
+        for (int k = 0; k < prefix.length(); k += 1) {
+            if (store.charAt(pos + k) != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The whole word around pos, or null if pos is not in or after one.
+    private String wordAt(int pos) {
+        int start = wordStart(pos);
+        int end = wordEnd(pos);
+        return start < end ? store.substring(start, end) : null;
+    }
+
+    private int wordStart(int pos) {
+        while (pos > 0 && isWordChar(store.charAt(pos - 1))) {
+            pos -= 1;
+        }
+        return pos;
+    }
+
+    private int wordEnd(int pos) {
+        while (pos < store.length() && isWordChar(store.charAt(pos))) {
+            pos += 1;
+        }
+        return pos;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
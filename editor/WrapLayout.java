@@ -0,0 +1,141 @@
+package editor;
+
+import javafx.scene.text.Font;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Word wrapping for a single paragraph (the text between two hard line breaks).
+ * Paragraphs wrap independently, so every view can relayout just the paragraphs an edit touched.
+ */
+public class WrapLayout {
+    // Display the text with a left and right margin of 5 pixels.
+    public static final int LEFT_MARGIN = 5;
+
+    private static final int[] NO_BREAKS = new int[0];
+    // A range of paragraphs with fewer characters than this is wrapped by one thread.
+    private static final int SPLIT_CHARS = 1 << 15;
+
+    /**
+     * Return the index of the first character of every visual line after the first one.
+     * The rules match the original editor: a word that does not fit moves to the next line,
+     * a word longer than the line breaks in the middle, whitespace and line breaks never wrap.
+     */
+    public static int[] wrap(char[] chars, int[] widths, int count, int maxWidth) {
+        int[] breaks = NO_BREAKS;
+        int rows = 0;
+        int lineStart = 0;
+        int lastSpace = -1;
+        int x = LEFT_MARGIN;
+
+        for (int i = 0; i < count; i += 1) {
+            char c = chars[i];
+            if (i > lineStart && c != ' ' && c != '\n' && x + widths[i] > maxWidth) {
+                // Break after the last whitespace in this line, or in the middle of the word if there is none.
+                int next = lastSpace >= lineStart ? lastSpace + 1 : i;
+                if (rows == breaks.length) {
+                    breaks = Arrays.copyOf(breaks, Math.max(4, rows * 2));
+                }
+                breaks[rows] = next;
+                rows += 1;
+                lineStart = next;
+                lastSpace = -1;
+                x = LEFT_MARGIN;
+                for (int j = next; j < i; j += 1) {
+                    x += widths[j];
+                }
+            }
+            x += widths[i];
+            if (c == ' ') {
+                lastSpace = i;
+            }
+        }
+        return rows == breaks.length ? breaks : Arrays.copyOf(breaks, rows);
+    }
+
+    /**
+     * Wrap every paragraph of the store, splitting them across the common fork/join pool.
+     * Fills breaks[line] and xs[line] for every logical line; lines whose breaks are already known
+     * only get their x positions, and lines whose xs are already set, like folded ones, are skipped.
+     * Every character must already be measured in glyphs, so the threads only ever read the cache.
+     */
+    public static void wrapAll(TextStore store, LineIndex lines, GlyphCache glyphs, Font font, int maxWidth,
+                               int[][] breaks, int[][] xs) {
+        ForkJoinPool.commonPool().invoke(new WrapTask(store, lines, glyphs, font, maxWidth, breaks, xs,
+                0, lines.lineCount()));
+    }
+
+    /** Wraps the logical lines [from, to), halving the range while it is large. */
+    private static class WrapTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final TextStore store;
+        private final LineIndex lines;
+        private final GlyphCache glyphs;
+        private final Font font;
+        private final int maxWidth;
+        private final int[][] breaks;
+        private final int[][] xs;
+        private final int from;
+        private final int to;
+
+        WrapTask(TextStore store, LineIndex lines, GlyphCache glyphs, Font font, int maxWidth,
+                 int[][] breaks, int[][] xs, int from, int to) {
+            this.store = store;
+            this.lines = lines;
+            this.glyphs = glyphs;
+            this.font = font;
+            this.maxWidth = maxWidth;
+            this.breaks = breaks;
+            this.xs = xs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int start = lines.lineStart(from);
+            int end = to < lines.lineCount() ? lines.lineStart(to) : lines.length();
+            if (to - from > 1 && end - start > SPLIT_CHARS) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new WrapTask(store, lines, glyphs, font, maxWidth, breaks, xs, from, mid),
+                        new WrapTask(store, lines, glyphs, font, maxWidth, breaks, xs, mid, to));
+                return;
+            }
+            char[] chars = new char[256];
+            int[] widths = new int[256];
+            for (int line = from; line < to; line += 1) {
+                int count = lines.lineLength(line);
+                if (xs[line] != null) {
+                    start += count;
+                    continue;
+                }
+                if (count > chars.length) {
+                    chars = new char[Math.max(count, chars.length * 2)];
+                    widths = new int[chars.length];
+                }
+                store.getChars(start, start + count, chars, 0);
+                for (int i = 0; i < count; i += 1) {
+                    widths[i] = glyphs.width(chars[i], font);
+                }
+                int[] lineBreaks = breaks[line] != null ? breaks[line] : wrap(chars, widths, count, maxWidth);
+                int[] lineXs = new int[count];
+                int row = 0;
+                int x = LEFT_MARGIN;
+                for (int i = 0; i < count; i += 1) {
+                    if (row < lineBreaks.length && lineBreaks[row] == i) {
+                        row += 1;
+                        x = LEFT_MARGIN;
+                    }
+                    lineXs[i] = x;
+                    x += widths[i];
+                }
+                breaks[line] = lineBreaks;
+                xs[line] = lineXs;
+                start += count;
+            }
+        }
+    }
+}